@@ -963,6 +963,30 @@ public class Convert {
         return paramlist;
 
     }
+    // --------------------------------------------------- toSettings -
+    /**
+    * Parses a settings string of name=value pairs separated by ; into a map.  Names are lower cased so lookups are
+    * case insensitive; entries without an = are logged and skipped.
+    * Example: cacheTtl=60; maxActive=20 will return {cachettl=60, maxactive=20}
+    *
+    *@param	string		the settings string; may be null
+    *@return			map of lower cased names to values
+    */
+    public static Map<String, String> toSettings(String string)
+    {
+        Map<String, String> map = new HashMap<String, String>();
+        if (string == null || string.trim().length() == 0)
+            return map;
+        int pos;
+        for (String setting : string.split(";")) {
+            pos = setting.indexOf('=');
+            if (pos > 0)
+                map.put(setting.substring(0, pos).trim().toLowerCase(), setting.substring(pos + 1).trim());
+            else if (setting.trim().length() > 0)
+                log.warn("[" + string + "] setting [" + setting + "] is not in name=value format; skipping...");
+        }
+        return map;
+    }
     // -------------------------------------------------------- isNumeric -
     /**
      *  check if string contains only numbers
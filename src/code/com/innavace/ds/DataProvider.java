@@ -17,13 +17,27 @@ package com.innavace.ds;
 
 import com.innavace.ds.config.ConfigurationHandler;
 import com.innavace.ds.config.Configuration;
+import com.innavace.ds.config.Connection;
+import com.innavace.ds.config.ConnectionExecutor;
+import com.innavace.ds.config.ConnectionHandler;
+import com.innavace.ds.config.QueryControl;
+import com.innavace.ds.wrapper.GuardedResponseWrapper;
+import com.innavace.ds.wrapper.JSONReader;
+import com.innavace.ds.wrapper.OrderedParameterRequestWrapper;
+import com.innavace.ds.writer.EntityTagOutputStream;
+import com.innavace.ds.writer.ResultWriters;
 
+import javax.naming.NamingException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
@@ -38,6 +52,10 @@ import org.apache.log4j.Logger;
 public class DataProvider extends HttpServlet
 {
 	public static Logger log = Logger.getLogger(DataProvider.class);
+    // the most of a query response we hold to compute its etag; the ETAG_MAX_BYTES registry entry overrides it
+    public static final long DEFAULT_ETAG_MAX_BYTES = 1024 * 1024;
+    // milliseconds the client is willing to wait; lowers the connection deadline and the configuration query timeout
+    public static final String DEADLINE_HEADER = "X-Request-Timeout";
 
     @Override
 	protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException {
@@ -106,14 +124,47 @@ public class DataProvider extends HttpServlet
                 response.sendError(403, "[" + dsPath + "] requires system privileges; try adding /_system/ prefix instead.");
             else {
             // attempt to execute the configuration requested action
+                GuardedResponseWrapper guarded = new GuardedResponseWrapper(response);
+                Connection connection = ConnectionHandler.get(configuration.connectionName);
+                long deadline = Math.max(0, Convert.toLng(request.getHeader(DEADLINE_HEADER)));
+                QueryControl control = new QueryControl(deadline);
+                long timeout = 0;
                 try {
-                    response.setContentType("application/json");
-                    String sresult = configuration.execute(request, _action);
-                    response.getOutputStream().write(sresult.getBytes("UTF-8"));
+                    // the database work runs on the connection's own executor so a slow database can only tie up its
+                    //  threads; we wait here for it (up to the connection's deadline or the client's if sooner)
+                    Callable<Void> task = createTask(configuration, request, guarded, _action, control);
+                    if (connection == null || !connection.isValid())
+                        task.call();
+                    else {
+                        ConnectionExecutor executor = connection.getExecutor();
+                        timeout = executor.getTimeout();
+                        if (deadline > 0)
+                            timeout = timeout > 0 ? Math.min(timeout, deadline) : deadline;
+                        executor.execute(task, timeout);
+                    }
+                }
+                catch (RejectedExecutionException reex) {
+                    log.warn("[" + dsPath + "] rejected; connection [" + configuration.connectionName + "] is busy: " + reex.getMessage());
+                    ConnectionExecutor executor = connection == null ? null : connection.findExecutor();
+                    response.setIntHeader("Retry-After", executor == null ? ConnectionExecutor.DEFAULT_RETRY_AFTER : executor.getRetryAfter());
+                    response.sendError(503, "[" + configuration.connectionName + "] is busy; try again later.");
+                }
+                catch (TimeoutException tex) {
+                    // the work can no longer touch this response; stop the statement so the database can let it go too
+                    guarded.abandon();
+                    control.cancel();
+                    log.warn("[" + dsPath + "] gave up waiting on connection [" + configuration.connectionName + "] after " + timeout + "ms");
+                    if (!response.isCommitted())
+                        response.sendError(504, "[" + dsPath + "] did not finish in " + timeout + "ms.");
                 }
                 catch (Throwable ex)
                 {
                     ex.printStackTrace();
+                    // if we already started streaming rows the status has been sent; all we can do is stop writing
+                    if (response.isCommitted()) {
+                        log.error("[" + dsPath + "] failed after the response was committed; result is incomplete: " + ex);
+                        return;
+                    }
                     // we want to return the update statement for pre-population of table fields if the error was
                     //  no table found
                     String emsg = ex.toString();
@@ -128,8 +179,130 @@ public class DataProvider extends HttpServlet
         }
     }
 
+    // returns the work for the request; everything it needs from the request is read now so it never touches the
+    //  request after we stop waiting for it; that includes a batch body, which we read (up to the wrapper's MAX_SIZE)
+    //  before the batch can borrow a connection so a slow upload never holds one or an open transaction
+    protected Callable<Void> createTask(final Configuration configuration, HttpServletRequest request, final HttpServletResponse response, final String action, final QueryControl control) throws IOException {
+        // a json array body on a write is a batch of parameter objects; run them together
+        JSONReader batch = getBatchReader(request, action);
+        if (batch != null) {
+            final List<LinkedHashMap<String, String[]>> rows = batch.readParameterArray();
+            response.setContentType(ResultWriters.JSON);
+            return new Callable<Void>() {
+                public Void call() throws Exception {
+                    configuration.executeBatch(rows, action, response.getOutputStream(), control);
+                    return null;
+                }
+            };
+        }
+        // results are streamed to the client in the requested format as they are read; ndjson rows are flushed as we
+        //  go so the container sends them chunked
+        // the servlet 2.3 api hands back a raw map; it is always names to value arrays
+        @SuppressWarnings("unchecked")
+        final Map<String, String[]> parameterMap = request.getParameterMap();
+        // callable statements always answer with a json object of out parameters and result sets
+        final String responseType = configuration.isCallable(action) ? ResultWriters.JSON : ResultWriters.getResponseType(request.getHeader("accept"), parameterMap);
+        response.setContentType(responseType);
+        if (isTaggable(configuration, request, action, responseType)) {
+            final String ifNoneMatch = request.getHeader("If-None-Match");
+            return new Callable<Void>() {
+                public Void call() throws Exception {
+                    executeTagged(configuration, parameterMap, responseType, ifNoneMatch, response, action, control);
+                    return null;
+                }
+            };
+        }
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                configuration.execute(parameterMap, responseType, action, response.getOutputStream(), control);
+                return null;
+            }
+        };
+    }
+
+    // GET queries are held long enough to tag them when the configuration has a cache policy or the client is
+    //  revalidating; everything else streams from the first row.  ndjson is for streaming so we never hold it back
+    protected boolean isTaggable(Configuration configuration, HttpServletRequest request, String action, String responseType) {
+        if (!request.getMethod().equalsIgnoreCase("GET") || !action.equalsIgnoreCase("query") || responseType.equals(ResultWriters.NDJSON))
+            return false;
+        return configuration.getCacheControl() != null || request.getHeader("If-None-Match") != null;
+    }
+
+    // runs the query holding the result (up to ETAG_MAX_BYTES) to send a strong etag and the configuration's cache
+    //  policy; a matching If-None-Match gets a 304 with no body.  the cache headers only go out with a body we
+    //  produced so a failure never leaves a cacheable error behind
+    protected void executeTagged(Configuration configuration, Map<String, String[]> parameterMap, String responseType, String ifNoneMatch, final HttpServletResponse response, String action, QueryControl control) throws SQLException, NamingException, IOException {
+        final String cacheControl = configuration.getCacheControl();
+        final int maxAge = Convert.toInt(configuration.getSetting("maxAge"));
+        long limit = Convert.toLng(ConfigurationHandler.getRegistryEntry("ETAG_MAX_BYTES"));
+        EntityTagOutputStream out = new EntityTagOutputStream(response.getOutputStream(), limit > 0 ? limit : DEFAULT_ETAG_MAX_BYTES) {
+            // too big to tag; the rows read so far are good so the policy goes out with them
+            @Override
+            protected void passingThrough() {
+                setCacheHeaders(response, cacheControl, maxAge);
+            }
+        };
+        configuration.execute(parameterMap, responseType, action, out, control);
+        String etag = out.getEntityTag();
+        if (etag != null) {
+            setCacheHeaders(response, cacheControl, maxAge);
+            response.setHeader("ETag", etag);
+            if (matches(ifNoneMatch, etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        out.writeBody();
+    }
+
+    // replaces the no-cache the filter put on every data response; the representation depends on Accept so caches
+    //  have to key on it (the compression filter adds Accept-Encoding)
+    protected void setCacheHeaders(HttpServletResponse response, String cacheControl, int maxAge) {
+        if (cacheControl != null) {
+            response.setHeader("Cache-Control", cacheControl);
+            response.setDateHeader("Expires", System.currentTimeMillis() + (maxAge * 1000L));
+        }
+        response.addHeader("Vary", "Accept");
+    }
+
+    // weak comparison like the spec asks for If-None-Match; W/ prefixes and the -gzip / -deflate suffix the
+    //  compression filter adds to the tag are ignored
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+        if (ifNoneMatch.trim().equals("*"))
+            return true;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            tag = tag.replace("-gzip\"", "\"").replace("-deflate\"", "\"");
+            if (tag.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    // true if the request is a write with a json body (which is a batch if it starts with [)
+    protected boolean isBatch(HttpServletRequest request, String action) {
+        String contentType = request.getContentType();
+        return !action.equalsIgnoreCase("query") && contentType != null && contentType.contains("application/json");
+    }
+
+    // returns a reader positioned at the body if the request is a write with a json array body; null otherwise.  the
+    //  reader fails rather than read more than the same MAX_SIZE the request wrapper buffers for form bodies
+    protected JSONReader getBatchReader(HttpServletRequest request, String action) throws IOException {
+        if (!isBatch(request, action))
+            return null;
+        JSONReader reader = new JSONReader(request.getReader(), OrderedParameterRequestWrapper.MAX_SIZE);
+        return reader.peek() == '[' ? reader : null;
+    }
+
 	protected void doDebug(HttpServletRequest httpServletRequest)
 	{
+        // walking the headers and parameters isn't free; skip it all unless someone will see it
+        if (!log.isDebugEnabled())
+            return;
         log.debug("request method: " + httpServletRequest.getMethod());
         log.debug("testing body: " + httpServletRequest.toString());
         log.debug("testing query string: " + httpServletRequest.getQueryString());
@@ -15,11 +15,16 @@
  */
 package com.innavace.ds;
 
+import com.innavace.ds.config.BatchHandler;
 import com.innavace.ds.config.Configuration;
 import com.innavace.ds.config.ConfigurationHandler;
 import com.innavace.ds.config.ConnectionHandler;
+import com.innavace.ds.config.ResultCache;
+import com.innavace.ds.metrics.Metrics;
 import com.innavace.ds.upload.XMLConfigurationUploader;
 import com.innavace.ds.upload.XMLConnectionUploader2;
+import com.innavace.ds.wrapper.JSONReader;
+import com.innavace.ds.wrapper.OrderedParameterRequestWrapper;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -156,7 +161,7 @@ public class SystemProvider extends HttpServlet
             response.flushBuffer();
         }
         else if (dsPath.equalsIgnoreCase("/_system/connections/refresh")) {
-            try {ConnectionHandler.destroy(); ConnectionHandler.init();}
+            try {ConnectionHandler.reload();}
             catch (Exception ex) {log.fatal("Exception trying to refresh connection list: " + ex);}
             response.getOutputStream().print("refreshed");
             response.flushBuffer();
@@ -363,6 +368,33 @@ public class SystemProvider extends HttpServlet
                 response.sendError(500, t.toString());
             }
         }
+        else if (dsPath.equalsIgnoreCase("/_system/batch")) {
+            // body is a json array of {path, action, params} operations; results come back in the same order.  the body
+            //  is held to the same MAX_SIZE the request wrapper buffers
+            try {
+                response.setContentType("application/json");
+                long deadline = Math.max(0, Convert.toLng(request.getHeader(DataProvider.DEADLINE_HEADER)));
+                BatchHandler.execute(new JSONReader(request.getReader(), OrderedParameterRequestWrapper.MAX_SIZE), response.getOutputStream(), deadline);
+            }
+            catch (Throwable t) {
+                t.printStackTrace();
+                if (!response.isCommitted())
+                    response.sendError(500, "Exception running batch: " + t);
+            }
+        }
+        else if (dsPath.equalsIgnoreCase("/_system/cache")) {
+            response.setContentType("application/json");
+            response.getOutputStream().print(ResultCache.toJSON());
+        }
+        else if (dsPath.equalsIgnoreCase("/_system/cache/clear")) {
+            ConfigurationHandler.clearCache();
+            response.getOutputStream().print("cleared");
+            response.flushBuffer();
+        }
+        else if (dsPath.equalsIgnoreCase("/_system/metrics")) {
+            response.setContentType(Metrics.CONTENT_TYPE);
+            response.getOutputStream().write(Metrics.toPrometheus().getBytes("UTF-8"));
+        }
         else if (dsPath.equalsIgnoreCase("/_system/log/level/set")) {
             // attempt to set the global log level runtime for the server
             String requestLevel = request.getParameter("log_level");
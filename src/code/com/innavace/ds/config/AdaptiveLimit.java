@@ -0,0 +1,145 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import com.innavace.ds.Convert;
+import com.innavace.ds.metrics.ConnectionMetrics;
+import com.innavace.ds.metrics.Metrics;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Limits the statements in flight on one connection to a number that moves with the database's latency (AIMD).  The
+ * latency is only the time the database took to execute the statements (up to the first row), never the borrow or the
+ * time spent streaming rows to the client.  Each statement that executes within limitTolerance times the usual latency
+ * of its configuration while the limit is being used grows the limit by about one per round; a slower one cuts it by
+ * 10% (at most once per round so a burst of slow results counts as one signal).  The usual latency is a slow moving
+ * average kept per configuration (about 5% per round) so a slow report next to fast lookups doesn't look like load.
+ * Off unless the connection opts in with the limitMax pool setting (capped at maxActive); also tuned by limitInitial,
+ * limitMin, limitTolerance and limitWait (ms a borrow may wait for room before it is rejected; 0 by default so a full
+ * limit is a 503 right away).  Time spent waiting for room counts toward the connection's queue wait metric.
+ */
+public class AdaptiveLimit {
+    public static Logger log = Logger.getLogger(AdaptiveLimit.class);
+    public static final int DEFAULT_INITIAL = 20;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    public static final long DEFAULT_WAIT = 0;
+    private static final double DECREASE = 0.9;
+    // how far the usual latency moves toward what we see per round of borrows
+    private static final double SMOOTHING = 0.05;
+
+    private final String name;
+    private final int min;
+    private final int max;
+    private final double tolerance;
+    private final long wait;
+    private final ConnectionMetrics metrics;
+    private double limit;
+    private int inFlight;
+    // usual execution nanos for each configuration path
+    private final Map<String, Double> baselines = new HashMap<String, Double>();
+    private long lastDecrease;
+
+    public AdaptiveLimit(String name, Map<String, String> settings, int maxActive) {
+        this.name = name;
+        this.min = Math.max(1, Convert.toInt(settings.get("limitmin")));
+        this.max = Math.min(Math.max(0, Convert.toInt(settings.get("limitmax"))), maxActive);
+        int initial = Convert.toInt(settings.get("limitinitial"));
+        this.limit = Math.max(min, Math.min(max, initial > 0 ? initial : DEFAULT_INITIAL));
+        double tolerance = Convert.toDbl(settings.get("limittolerance"));
+        this.tolerance = tolerance > 1 ? tolerance : DEFAULT_TOLERANCE;
+        this.wait = settings.containsKey("limitwait") ? Math.max(0, Convert.toLng(settings.get("limitwait"))) : DEFAULT_WAIT;
+        this.metrics = Metrics.getConnectionMetrics(name);
+        this.lastDecrease = System.nanoTime();
+    }
+
+    public boolean isEnabled() {
+        return max > 0;
+    }
+
+    // waits (up to limitWait ms) for room under the limit; the wait is queue time like the executor's
+    public synchronized void acquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return;
+        }
+        long queued = System.nanoTime();
+        long deadline = System.currentTimeMillis() + wait;
+        try {
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    metrics.rejections.increment();
+                    throw new RejectedExecutionException("connection [" + name + "] is at its limit of " + (int) limit + " statements");
+                }
+                try {wait(remaining);}
+                catch (InterruptedException iex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("interrupted waiting for connection [" + name + "]");
+                }
+            }
+            inFlight++;
+        }
+        finally {
+            metrics.queueWait.observe(System.nanoTime() - queued);
+        }
+    }
+
+    // gives the slot back and adjusts the limit from how long the key's (configuration path) statements took to
+    //  execute; failed statements say nothing about load
+    public synchronized void release(String key, long latency, boolean failed) {
+        long now = System.nanoTime();
+        long started = now - latency;
+        boolean saturated = inFlight >= limit / 2;
+        inFlight--;
+        if (!failed && latency > 0) {
+            Double usual = baselines.get(key);
+            double baseline = usual == null ? latency : usual;
+            if (latency > baseline * tolerance) {
+                // only results that started after the last cut reflect it
+                if (started > lastDecrease) {
+                    limit = Math.max(min, limit * DECREASE);
+                    lastDecrease = now;
+                    log.debug("connection [" + name + "] limit lowered to " + (int) limit);
+                }
+            }
+            else if (saturated)
+                limit = Math.min(max, limit + 1 / limit);
+            // spread over the round so a busy connection doesn't learn its slow latency is usual any faster
+            baselines.put(key, baseline + (latency - baseline) * SMOOTHING / limit);
+        }
+        notifyAll();
+    }
+
+    // gives the slot back without a latency sample (batches and other work too uneven to judge the database by)
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,239 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import com.innavace.ds.wrapper.JSONReader;
+import com.innavace.ds.writer.JSONEscaper;
+import com.innavace.ds.writer.ResponseBuffer;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Runs an ordered list of {path, action, params} operations from one request and writes one combined json document.
+ * Each operation runs on the executor of the connection it uses so a batch is held to the same limits, queue timeout
+ * and deadlines as single requests; one that can't get in comes back with a 503 status, one that runs past its
+ * deadline is cancelled and comes back with a 504.  Consecutive queries run in parallel; a write waits for the
+ * queries before it and finishes before anything after it starts so the operations still see each other's changes in
+ * order.  A write we stop waiting for may still be running (or commit) after the cancel so nothing after it is run;
+ * those come back with a 424.
+ */
+public class BatchHandler {
+    public static Logger log = Logger.getLogger(BatchHandler.class);
+
+    /**
+     * One operation from the request and its result once run
+     */
+    private static class Operation implements Callable<Operation> {
+        String path;
+        String action;
+        LinkedHashMap<String, String[]> parameters;
+        Configuration configuration;
+        int status = 200;
+        String error;
+        byte[] result;
+        QueryControl control;
+        Future<Operation> future;
+        // when we stop waiting (System.currentTimeMillis()); 0 to wait as long as it takes
+        long expires;
+        // set once we gave up waiting; the result of a run we no longer wait for is dropped
+        private boolean abandoned;
+
+        public Operation call() {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+                configuration.execute(parameters, "application/json", action, out, control);
+                finish(200, out.toByteArray(), null);
+            }
+            catch (Throwable t) {
+                log.warn("batch operation [" + path + "] [" + action + "] failed: " + t);
+                finish(500, null, t.toString());
+            }
+            return this;
+        }
+
+        synchronized void finish(int status, byte[] result, String error) {
+            if (abandoned)
+                return;
+            this.status = status;
+            this.result = result;
+            this.error = error;
+        }
+
+        synchronized void abandon(int status, String error) {
+            finish(status, null, error);
+            abandoned = true;
+        }
+
+        // queries run in parallel unless they call a procedure (which may write)
+        boolean isReadOnly() {
+            try {
+                StatementPlan plan = configuration.getPlan(action);
+                return action.equals("query") && plan != null && !plan.callable;
+            }
+            catch (Exception ex) {return false;}
+        }
+    }
+
+    // deadline is the milliseconds the client will wait for each operation (0 if it didn't say)
+    public static void execute(JSONReader reader, OutputStream out, long deadline) throws IOException {
+        List<Operation> operations = new ArrayList<Operation>();
+        reader.beginArray();
+        while (reader.hasNext())
+            operations.add(toOperation(reader.readObject()));
+        reader.endArray();
+
+        // run the queries between writes together; a write is a barrier
+        List<Operation> running = new ArrayList<Operation>();
+        Operation unfinished = null;
+        for (Operation operation : operations) {
+            if (operation.configuration == null)
+                continue;
+            if (unfinished != null)
+                operation.abandon(424, "not run; the write to [" + unfinished.path + "] before it did not finish.");
+            else if (operation.isReadOnly()) {
+                submit(operation, deadline);
+                running.add(operation);
+            }
+            else {
+                await(running);
+                submit(operation, deadline);
+                if (!await(operation))
+                    unfinished = operation;
+            }
+        }
+        await(running);
+
+        ResponseBuffer buffer = new ResponseBuffer(out);
+        buffer.append('[');
+        boolean first = true;
+        for (Operation operation : operations) {
+            if (!first)
+                buffer.append(", ");
+            first = false;
+            synchronized (operation) {
+                buffer.append("{\"path\":").append(JSONEscaper.quote(operation.path));
+                buffer.append(", \"action\":").append(JSONEscaper.quote(operation.action));
+                buffer.append(", \"status\":").append(operation.status);
+                if (operation.result != null) {
+                    buffer.append(", \"result\":");
+                    buffer.write(operation.result, 0, operation.result.length);
+                }
+                else
+                    buffer.append(", \"error\":").append(JSONEscaper.quote(operation.error));
+            }
+            buffer.append('}');
+        }
+        buffer.append(']');
+        buffer.close();
+    }
+
+    // hands the operation to its connection's executor; a connection we can't use runs here so execute reports why
+    private static void submit(Operation operation, long deadline) {
+        operation.control = new QueryControl(deadline);
+        Connection connection = ConnectionHandler.get(operation.configuration.connectionName);
+        if (connection == null || !connection.isValid()) {
+            operation.call();
+            return;
+        }
+        try {
+            ConnectionExecutor executor = connection.getExecutor();
+            long timeout = executor.getTimeout();
+            if (deadline > 0)
+                timeout = timeout > 0 ? Math.min(timeout, deadline) : deadline;
+            operation.expires = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            operation.future = executor.submit(operation);
+        }
+        catch (RejectedExecutionException reex) {
+            log.warn("batch operation [" + operation.path + "] rejected; connection [" + operation.configuration.connectionName + "] is busy: " + reex.getMessage());
+            operation.abandon(503, "[" + operation.configuration.connectionName + "] is busy; try again later.");
+        }
+    }
+
+    private static void await(List<Operation> running) {
+        for (Operation operation : running)
+            await(operation);
+        running.clear();
+    }
+
+    // waits for the operation until it expires; past that we stop its statement and report a 504 for it.  returns false
+    //  if we stopped waiting while it may still be running
+    private static boolean await(Operation operation) {
+        if (operation.future == null)
+            return true;
+        try {
+            if (operation.expires == 0)
+                operation.future.get();
+            else
+                operation.future.get(Math.max(1, operation.expires - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException tex) {
+            operation.abandon(504, "[" + operation.path + "] did not finish in time.");
+            operation.control.cancel();
+            log.warn("batch operation [" + operation.path + "] [" + operation.action + "] timed out; cancelled");
+            return false;
+        }
+        catch (InterruptedException iex) {
+            Thread.currentThread().interrupt();
+            operation.abandon(500, "interrupted waiting for the operation");
+            operation.control.cancel();
+            return false;
+        }
+        catch (ExecutionException eex) {
+            // call() catches everything; only the queue timeout gets here
+            if (eex.getCause() instanceof RejectedExecutionException)
+                operation.abandon(503, "[" + operation.configuration.connectionName + "] is busy; try again later.");
+            else {
+                log.error("unexpected batch operation failure: ", eex);
+                operation.abandon(500, String.valueOf(eex.getCause()));
+            }
+        }
+        return true;
+    }
+
+    // builds the operation and resolves its configuration using the same rules the data provider uses
+    private static Operation toOperation(Map<String, Object> object) throws IOException {
+        Operation operation = new Operation();
+        Object path = object.get("path");
+        Object action = object.get("action");
+        Object params = object.get("params");
+        operation.path = path instanceof String ? (String) path : "";
+        if (operation.path.length() > 0 && !operation.path.startsWith("/"))
+            operation.path = "/" + operation.path;
+        operation.action = action instanceof String ? ((String) action).toLowerCase() : "query";
+        if (!(operation.action.equals("query") || operation.action.equals("insert") || operation.action.equals("update") || operation.action.equals("delete")))
+            operation.action = "query";
+        if (params instanceof Map)
+            operation.parameters = JSONReader.toParameters((Map<?, ?>) params);
+        else
+            operation.parameters = new LinkedHashMap<String, String[]>();
+        operation.configuration = ConfigurationHandler.getConfiguration(operation.path);
+        if (operation.configuration == null) {
+            operation.status = 404;
+            operation.error = "[" + operation.path + "] configuration was not found!";
+        }
+        return operation;
+    }
+}
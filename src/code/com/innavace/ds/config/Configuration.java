@@ -16,11 +16,21 @@
 package com.innavace.ds.config;
 
 import com.innavace.ds.Convert;
+import com.innavace.ds.metrics.Metrics;
+import com.innavace.ds.metrics.RequestMetrics;
+import com.innavace.ds.wrapper.JSONReader;
+import com.innavace.ds.writer.CaptureOutputStream;
+import com.innavace.ds.writer.CountingOutputStream;
+import com.innavace.ds.writer.ResponseBuffer;
+import com.innavace.ds.writer.ResultWriter;
+import com.innavace.ds.writer.ResultWriters;
 import org.apache.log4j.Logger;
 
 import javax.naming.NamingException;
 import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URLEncoder;
 import java.sql.*;
 import java.util.*;
@@ -34,6 +44,8 @@ import java.util.Date;
 public class Configuration
 {
     public static Logger log = Logger.getLogger(Configuration.class);
+    // rows sent to the database per executeBatch call when running a batch request
+    private static final int BATCH_SIZE = 1000;
 //    public static enum Action {query, insert, update, delete}
 //    public static int USE_READ = (int) Math.pow(2, 1);
 //    public static int USE_WRITE = (int) Math.pow(2, 2);
@@ -47,8 +59,18 @@ public class Configuration
     public String insertStatement;
 	public String deleteStatement;
     public String keywords;
+    // semicolon separated name=value pairs for per configuration tuning; ex: cacheTtl=60
+    public String settings;
     public boolean cached;
-    public String cachedResult = null;
+    public int cacheTtl = 0;
+    // seconds a statement may run before the driver stops it; 0 for no limit
+    public int queryTimeout = 0;
+    private Map<String, String> settingsMap = new HashMap<String, String>();
+    private StatementPlan queryPlan;
+    private StatementPlan insertPlan;
+    private StatementPlan updatePlan;
+    private StatementPlan deletePlan;
+    private volatile boolean compiled = false;
 
     public boolean isSystem() {return (path != null && (path.equalsIgnoreCase("/configurations") || path.equalsIgnoreCase("/connections")));}
     public boolean isQueryable() {return (queryStatement != null && queryStatement.length() > 0);}
@@ -87,311 +109,212 @@ public class Configuration
     // takes an action and return type (accept header format) and returns a string in the format specified
     public String execute(HttpServletRequest request, String action) throws SQLException, NamingException, IOException {
         // get the responseType and parameterMap from the request and pass to other call
-        String responseType = request.getHeader("accept");
         Map<String, String[]> parameterMap = request.getParameterMap();
+        String responseType = ResultWriters.getResponseType(request.getHeader("accept"), parameterMap);
         return execute(parameterMap, responseType, action);
     }
 
-    private boolean hasOption (String option, String[] options) {
-        for (String opt : options) {
-            if (opt.trim().equalsIgnoreCase(option.trim()))
-                return true;
-        }
-        return false;
+    // parses each statement once into a plan (stripped sql, callable flag, typed binders) so requests only bind values
+    public synchronized void compile() {
+        settingsMap = Convert.toSettings(settings);
+        cacheTtl = Convert.toInt(getSetting("cacheTtl"));
+        cached = cacheTtl > 0;
+        queryTimeout = Math.max(0, Convert.toInt(getSetting("queryTimeout")));
+        queryPlan = StatementPlan.compile(this, queryStatement);
+        insertPlan = StatementPlan.compile(this, insertStatement);
+        updatePlan = StatementPlan.compile(this, updateStatement);
+        deletePlan = StatementPlan.compile(this, deleteStatement);
+        compiled = true;
     }
 
-    private String getOptType (String[] opts) {
-        // look for a one char option;
-        String type = "s";
-        for (String opt : opts) {
-            if (opt.trim().length() == 1) {
-                type = opt.trim();
-            }
-        }
-        return type;
-    }
-    private int getSqlType(String type) {
-        if (type.equalsIgnoreCase("i") || type.equalsIgnoreCase("l"))
-            return Types.INTEGER;
-        if (type.equalsIgnoreCase("f"))
-            return Types.FLOAT;
-        if (type.equalsIgnoreCase("d"))
-            return Types.DOUBLE;
-        if (type.equalsIgnoreCase("t"))
-            return Types.TIMESTAMP;
-        if (type.equalsIgnoreCase("t"))
-            return Types.DATE;
-        if (type.equalsIgnoreCase("a"))
-            return Types.ARRAY;
-        return Types.VARCHAR;
-    }
-
-    private String getOutParameterResults (PreparedStatement ps, Map<String, String[]> parameterMap, List<String> options)
-        throws SQLException {
-        int paramIdx = 0;
-        // if we have parameters lets replace them in the order the parameter was received
-        // NOTE: if a parameter is sent 2x then we only pick the first
-        //      ex: a=1,b=2,a=3,c=3 : ?1=[a->1] ?2=[b->2] ?3=[c->3] ?4=error
-        // get our string keys in order array
-        Set<String> keyset = parameterMap.keySet();
-        String[] keys = keyset.toArray(new String[options.size()]);
-        String[] opts;
-        String optType;
-        // we are trying to map our passed parameter names to the ordinal questionmarks; if we have more questionmarks than keys lets make some up
-        for (int i=0; i<options.size(); i++)
-            // if we have a parameter set the key and value; else set defaults
-            if (i >= parameterMap.size())
-                keys[i] = "p" + i;
-
-        StringBuilder buffer = new StringBuilder(100);
-        buffer.append("{");
-        buffer.append("\"cs\":true");
-        for (String option : options) {
-            opts = option.split(":");
-            optType = getOptType(opts);
-            if (ps instanceof CallableStatement) {
-                if (hasOption("out", opts)) {
-                    buffer.append(", ");
-                    // add our key and return value according to data type
-                    if (optType.equalsIgnoreCase("l"))
-                        buffer.append("\"").append(keys[paramIdx]).append("\":").append(((CallableStatement) ps).getLong((paramIdx + 1)));
-                    else if (optType.equalsIgnoreCase("i"))
-                        buffer.append("\"").append(keys[paramIdx]).append("\":").append(((CallableStatement) ps).getInt((paramIdx + 1)));
-                    else if (optType.equalsIgnoreCase("f"))
-                        buffer.append("\"").append(keys[paramIdx]).append("\":").append(((CallableStatement) ps).getFloat((paramIdx + 1)));
-                    else if (optType.equalsIgnoreCase("d"))
-                        buffer.append("\"").append(keys[paramIdx]).append("\":").append(((CallableStatement) ps).getDouble((paramIdx + 1)));
-                    else if (optType.equalsIgnoreCase("t"))
-                        buffer.append("\"").append(keys[paramIdx]).append("\":").append(((CallableStatement) ps).getTimestamp((paramIdx + 1)));
-                    else
-                        buffer.append("\"").append(keys[paramIdx]).append("\":\"").append(((CallableStatement) ps).getString((paramIdx + 1))).append("\"");
-                }
-            } else {
-                log.debug("parameter: " + paramIdx + " - not callable statements skipping setting out params...");
-            }
-            paramIdx++;
-        }
-        buffer.append("}");
-        return buffer.toString();
+    // returns the value for a setting name (case insensitive) or null if not set
+    public String getSetting(String name) {
+        return settingsMap.get(name.toLowerCase());
     }
 
-    private void setParametersStatic(PreparedStatement ps, Map<String, String[]> parameterMap, List<String> options)
-        throws SQLException {
-        ps.setString(1, "testing");
-        ((CallableStatement) ps).registerOutParameter(2, Types.VARCHAR);
-        ((CallableStatement) ps).registerOutParameter(3, Types.INTEGER);
-    }
-
-    private void setParameters(PreparedStatement ps, Map<String, String[]> parameterMap, List<String> options)
-        throws SQLException {
-        int paramIdx = 0;
-        // if we have parameters lets replace them in the order the parameter was received
-        // NOTE: if a parameter is sent 2x then we only pick the first
-        //      ex: a=1,b=2,a=3,c=3 : ?1=[a->1] ?2=[b->2] ?3=[c->3] ?4=error
-        // get our string keys in order array
-        Set<String> keyset = parameterMap.keySet();
-        String[] keys = keyset.toArray(new String[options.size()]);
-        String[] values = new String[options.size()];
-        String[] opts;
-        String optType;
-        // we are trying to map our passed parameter names to the ordinal questionmarks; if we have more questionmarks than keys lets make some up
-        for (int i=0; i<options.size(); i++) {
-            // if we have a parameter set the key and value; else set defaults
-            if (i < parameterMap.size()) {
-                values[i] = parameterMap.get(keys[i])[0];
-            }
-            else {
-                keys[i] = "p" + i;
-                values[i] = "";
-            }
-        }
-        for (String option : options) {
-            log.debug("param index [" + paramIdx + "]: " + keys[paramIdx] + " - " + showNulls(values[paramIdx]));
-            // todo : currently getting 0 value, however, in the future look for [i] given pipe extension in the configuration
-            opts = option.split(":");
-            optType = getOptType(opts);
-            if (ps instanceof CallableStatement) {
-                if (hasOption("out", opts)) {
-                    log.debug("registering output parameter: " + (paramIdx + 1) + " - " + getSqlType(optType));
-                    ((CallableStatement) ps).registerOutParameter((paramIdx + 1), getSqlType(optType));
-                    if (hasOption("in", opts))
-                        setParameter(ps, optType, (paramIdx + 1), values[paramIdx]);
-                }
-                else
-                    setParameter(ps, optType, (paramIdx + 1), values[paramIdx]);
-            }
-            else
-                setParameter(ps, optType, (paramIdx + 1), values[paramIdx]);
-
-            paramIdx++;
-        }
+    // the Cache-Control value for query responses from the maxAge, staleWhileRevalidate and cacheScope (public or
+    //  private; private if not set) settings; null if maxAge isn't set so responses stay no-cache
+    public String getCacheControl() {
+        if (!compiled)
+            compile();
+        String maxAge = getSetting("maxAge");
+        if (maxAge == null || maxAge.length() == 0)
+            return null;
+        StringBuilder buffer = new StringBuilder(60);
+        buffer.append("public".equalsIgnoreCase(getSetting("cacheScope")) ? "public" : "private");
+        buffer.append(", max-age=").append(Math.max(0, Convert.toInt(maxAge)));
+        String stale = getSetting("staleWhileRevalidate");
+        if (stale != null && stale.length() > 0)
+            buffer.append(", stale-while-revalidate=").append(Math.max(0, Convert.toInt(stale)));
+        return buffer.toString();
     }
 
-    // convert nulls to a printable value
-    private String showNulls(String value) {
-        if (value == null)
-            return "#null#";
-        return value;
-    }
-
-    // since we need to call the same logic in several places im pulling this out to a function
-    private void setParameter(PreparedStatement ps, String optType, int index, String value)
-        throws SQLException {
-
-        log.debug("setting parameter: " + index + " - " + showNulls(value));
-        log.debug("parameter value is null?: " + (value == null));
-//        if (value == null) {
-//            log.debug("detected null value; setting null parameter for type [" + optType + "]...");
-//            ps.setNull(index, getSqlType(optType));
-//            return;
-//        }
-        if (optType.equalsIgnoreCase("l"))
-            ps.setLong(index, Convert.toLng(value));
-        else if (optType.equalsIgnoreCase("i"))
-            ps.setInt(index, Convert.toInt(value));
-        else if (optType.equalsIgnoreCase("f"))
-            ps.setFloat(index, Convert.toFlt(value));
-        else if (optType.equalsIgnoreCase("d"))
-            ps.setDouble(index, Convert.toDbl(value));
-        else if (optType.equalsIgnoreCase("t")) {
-            Date date = Convert.toDate(value);
-            if (date == null)
-                ps.setTimestamp(index, null);
-            else
-                ps.setTimestamp(index, new Timestamp(date.getTime()));
+    // true if the action runs a callable statement; a plan we can't get is left for execute to report
+    public boolean isCallable(String action) {
+        try {
+            StatementPlan plan = getPlan(action);
+            return plan != null && plan.callable;
         }
-        else
-            ps.setString(index, value);
-
-    }
-
-    private void setParametersOld(PreparedStatement ps, Map<String, String[]> parameterMap, List<String> options)
-        throws SQLException {
-        // for each option; set the ordinal parameter to the correct type
-        int paramIdx = 0;
-        // if we have parameters lets replace them in the order the parameter was received
-        // NOTE: if a parameter is sent 2x then we only pick the first
-        //      ex: a=1,b=2,a=3,c=3 : ?1=[a->1] ?2=[b->2] ?3=[c->3] ?4=error
-        // get our string keys in order array
-        Set<String> keyset = parameterMap.keySet();
-        String[] keys = keyset.toArray(new String[keyset.size()]);
-        for (String option : options) {
-            // setting each ? parameter in the prepared statement according to the parameter passed to us by position
-            if (keys.length < paramIdx)
-                throw new SQLException("Exception setting passed parameters to sql statement.  Expected [" + paramIdx + "] but only found [" + keys.length + "].");
-            log.debug("param index [" + paramIdx + "]: " + keys[paramIdx] + " - " + parameterMap.get(keys[paramIdx])[0]);
-            // todo : currently getting 0 value, however, in the future look for [i] given pipe extension in the configuration
-            if (option.startsWith("l") || option.startsWith("L"))
-                ps.setLong(paramIdx + 1, Convert.toLng(parameterMap.get(keys[paramIdx])[0]));
-            else if (option.startsWith("i") || option.startsWith("I"))
-                ps.setInt(paramIdx + 1, Convert.toInt(parameterMap.get(keys[paramIdx])[0]));
-            else if (option.startsWith("f") || option.startsWith("F"))
-                ps.setFloat(paramIdx + 1, Convert.toFlt(parameterMap.get(keys[paramIdx])[0]));
-            else if (option.startsWith("d") || option.startsWith("D"))
-                ps.setDouble(paramIdx + 1, Convert.toDbl(parameterMap.get(keys[paramIdx])[0]));
-            else if (option.startsWith("t") || option.startsWith("T")) {
-                Date date = Convert.toDate(parameterMap.get(keys[paramIdx])[0]);
-                if (date == null)
-                    ps.setTimestamp(paramIdx + 1, null);
-                else
-                    ps.setTimestamp(paramIdx + 1, new Timestamp(date.getTime()));
-            }
-            else
-                ps.setString(paramIdx + 1, parameterMap.get(keys[paramIdx])[0]);
-            paramIdx++;
+        catch (SQLException sqlex) {
+            return false;
         }
-
     }
 
-    private boolean isCallableStatement(String sql) {
-        // if we match a pattern then we are a callable statement
-        String regex = "\\s*\\{.*call.*\\}";
-        return sql.matches(regex);
-    }
-
-    public String execute(Map <String, String[]> parameterMap, String responseType, String action) throws SQLException, NamingException, IOException {
-        String originalSql;
-        if (action == null)
-            action = "";
+    // returns the plan for the action or null if the action has no sql defined
+    public StatementPlan getPlan(String action) throws SQLException {
+        // configurations not loaded through the handler (uploads, tests etc.) compile on first use
+        if (!compiled)
+            compile();
         if (action.equalsIgnoreCase("insert"))
-            originalSql = this.insertStatement;
+            return insertPlan;
         else if (action.equalsIgnoreCase("update"))
-            originalSql = this.updateStatement;
+            return updatePlan;
         else if (action.equalsIgnoreCase("delete"))
-            originalSql = this.deleteStatement;
+            return deletePlan;
         else if (action.equalsIgnoreCase("query")) {
-            originalSql = this.queryStatement;
             if (!this.isQueryable())
                 throw new SQLException("[" + this.path + "] does not support queries.");
+            return queryPlan;
         }
         else
             throw new SQLException ("Requested action [" + action + "] was not found.");
+    }
+
+    public String execute(Map <String, String[]> parameterMap, String responseType, String action) throws SQLException, NamingException, IOException {
+        // internal callers still want the whole result as a string; stream into memory and convert once
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(200);
+        execute(parameterMap, responseType, action, bos);
+        return new String(bos.toByteArray(), "UTF-8");
+    }
+
+    // takes an action and return type (accept header format) and streams the results to the output stream as they are read
+    public void execute(HttpServletRequest request, String action, OutputStream out) throws SQLException, NamingException, IOException {
+        // the servlet 2.3 api hands back a raw map; it is always names to value arrays
+        @SuppressWarnings("unchecked")
+        Map<String, String[]> parameterMap = request.getParameterMap();
+        String responseType = ResultWriters.getResponseType(request.getHeader("accept"), parameterMap);
+        execute(parameterMap, responseType, action, out);
+    }
 
-        if (originalSql == null || originalSql.length() == 0)
+    public void execute(Map <String, String[]> parameterMap, String responseType, String action, OutputStream out) throws SQLException, NamingException, IOException {
+        execute(parameterMap, responseType, action, out, new QueryControl(0));
+    }
+
+    // as above; the control lets another thread cancel the running statement and carries the client's deadline
+    public void execute(Map <String, String[]> parameterMap, String responseType, String action, OutputStream out, QueryControl control) throws SQLException, NamingException, IOException {
+        RequestMetrics metrics = Metrics.getRequestMetrics(this.path);
+        long start = System.nanoTime();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        boolean failed = true;
+        int rows = 0;
+        try {
+            rows = executePlan(parameterMap, responseType, action, counter, control);
+            failed = false;
+        }
+        finally {
+            metrics.record(System.nanoTime() - start, rows, counter.getCount(), failed);
+        }
+    }
+
+    // runs the statement for the action and writes the results; returns the number of rows written
+    private int executePlan(Map <String, String[]> parameterMap, String responseType, String action, OutputStream out, QueryControl control) throws SQLException, NamingException, IOException {
+        if (action == null)
+            action = "";
+        StatementPlan plan = getPlan(action);
+        if (plan == null)
             throw new SQLException("[" + this.path + "] does not have [" + action + "] sql defined.");
 
+        // serve repeat lookups from the result cache before we ever borrow a connection
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        CaptureOutputStream capture = null;
+        if (this.cached && action.equalsIgnoreCase("query") && !plan.callable) {
+            cacheKey = ResultCache.key(this, action, responseType, plan, parameterMap);
+            cacheGeneration = ResultCache.generation(this.path);
+            byte[] cachedResult = ResultCache.get(cacheKey);
+            if (cachedResult != null) {
+                log.debug("[" + this.path + "] served from result cache");
+                out.write(cachedResult);
+                return 0;
+            }
+            capture = new CaptureOutputStream(out, ResultCache.getMaxEntryBytes());
+            out = capture;
+        }
+
         int updatedRecs = 0;
-        String cache = "";
+        int rows = 0;
+        ResponseBuffer buffer = new ResponseBuffer(out);
         java.sql.Connection con = null;
         PreparedStatement ps = null;
         // NEW: we need to evaluate the sql string to intelligently determine if we use a prepared statement or a callable one.
         CallableStatement cs = null;
+        // csv has nowhere to put next or total so we turn paging down rather than drop them
+        PageRequest page = action.equalsIgnoreCase("query") && !plan.callable ? PageRequest.from(this, plan.sql, parameterMap) : null;
+        if (page != null && ResultWriters.CSV.equals(responseType))
+            throw new SQLException("[" + this.path + "] csv results can't be paged; request application/json or application/x-ndjson to page.");
+        // wait for room under the connection's adaptive limit before we borrow from the pool
+        AdaptiveLimit limit = getLimit();
+        if (limit != null)
+            limit.acquire();
+        boolean failed = true;
         try
         {
-            // determine if we have a callable statement or a prepared one
-            boolean isCallable = isCallableStatement(originalSql);
             log.debug("getting connection for configuration...");
             con = ConnectionHandler.getConnection(this.connectionName);
-            // strip out pre-processing directives before preparing the statement
-            String sql = stripOptions(originalSql);
-            // if we have question marks in the sql then lets set parameters one at a time for each ?
-            // while we are at it re-parse the original sql to look for options
-            List<String> options = getOptions(originalSql);
-            if (isCallable) {
-                log.debug("getting prepared statement for : " + sql);
-                cs = con.prepareCall(sql);
+            // the plan already knows if we have a callable statement or a prepared one and how to bind each ?
+            if (plan.callable) {
+                log.debug("getting prepared statement for : " + plan.sql);
+                cs = con.prepareCall(plan.sql);
+                start(cs, control);
                 // callable statements need to set parameters as in, out or inout; also we skip setting out parameters
-                // NOTE: this will be done in setParameters if we get a CallableStatement typeof as parameter
-                setParameters(cs, parameterMap, options);
+                plan.bind(cs, parameterMap);
                 log.debug("executing update...");
-                boolean isResultset = cs.execute();
+                boolean isResultset = execute(cs, control);
                 // getOutParameters will register each parameter name passed and the value of the return within one javascript object
-                String json = getOutParameterResults(cs, parameterMap, options);
+                String json = plan.getOutParameterResults(cs, parameterMap);
                 // results should contain all of our JSON string; NOTE: could be {}.
-                //int idx = 0;
+                // write everything but the close tag and then add on a key of rs+index and the json of each resultset
                 int resultsetIdx = 0;
-                StringBuilder buffer = new StringBuilder(200);
                 int pos = json.lastIndexOf("}");
                 if (pos != -1)
                     buffer.append(json.substring(0, pos));
                 else
-                    buffer.append("{").append(json);
+                    buffer.append('{').append(json);
 
                 while (isResultset) {
-                    // append results will copy all but the close tag and then add on a key of rs+index and the json of the resultset
-                    if (buffer.length() > 2)
-                        buffer.append(", ");
-                    // for debugging move to an append after we see everything working
-                    String jsonrs = toJSON(cs.getResultSet());
-                    buffer.append("\"rs").append(resultsetIdx++).append("\":").append(jsonrs);
+                    buffer.append(", ");
+                    buffer.append("\"rs").append(resultsetIdx++).append("\":");
+                    rows += toResponse(ResultWriters.JSON, null, cs.getResultSet(), buffer);
                     isResultset = cs.getMoreResults();
                 }
-                buffer.append("}");
-                cache = buffer.toString();
+                buffer.append('}');
             } else {
-                log.debug("getting prepared statement for : " + sql);
-                ps = con.prepareStatement(sql);
-                setParameters(ps, parameterMap, options);
-                if (action.equalsIgnoreCase("query")) {
-                    log.debug("executing query...");
-                    cache = toResponse(responseType, ps.executeQuery());
+                if (page != null) {
+                    rows = executePage(con, plan, page, responseType, parameterMap, buffer, control);
                 }
                 else {
-                    log.debug("executing update...");
-                    updatedRecs = ps.executeUpdate();
-                    cache = toResponse(responseType, updatedRecs);
+                    log.debug("getting prepared statement for : " + plan.sql);
+                    ps = con.prepareStatement(plan.sql);
+                    start(ps, control);
+                    plan.bind(ps, parameterMap);
+                    if (action.equalsIgnoreCase("query")) {
+                        log.debug("executing query...");
+                        rows = toResponse(responseType, ResultWriters.getLayout(parameterMap), executeQuery(ps, control), buffer);
+                    }
+                    else {
+                        log.debug("executing update...");
+                        updatedRecs = executeUpdate(ps, control);
+                        toResponse(responseType, updatedRecs, buffer);
+                    }
                 }
             }
+            buffer.close();
+            failed = false;
+        }
+        catch (IOException ioex) {
+            // the client is gone (or stopped waiting); stop the database instead of letting close() read out the rest
+            control.cancel();
+            throw ioex;
         }
         finally
         {
@@ -407,6 +330,8 @@ public class Configuration
                 try {con.close();}
                 catch (SQLException conex) {log.warn("exception attempting to close non-null connection: " + conex);}
             }
+            if (limit != null)
+                limit.release(this.path, control.getExecuteTime(), failed);
         }
 
         // some system cleanup - if we updated /configurations or /connections then we need to clear our system cache for new requests
@@ -415,17 +340,209 @@ public class Configuration
             catch (Exception ex) {log.fatal("Exception attempting to reset system configurations: " + ex);}
         }
         else if ((this.path.equalsIgnoreCase("/connections") || this.path.equalsIgnoreCase("connections")) && updatedRecs > 0) {
+            try {ConnectionHandler.reload();}
+            catch (Exception ex) {log.fatal("Exception attempting to reset system connections: " + ex);}
+        }
+
+        // save our results for the next identical request or throw away what we had if we changed the data
+        if (capture != null)
+            ResultCache.put(cacheKey, this.path, cacheGeneration, capture.toByteArray(), cacheTtl);
+        if (updatedRecs > 0)
+            ResultCache.invalidate(this.path);
+        return rows;
+    }
+
+    // runs the query for one page and writes {"rows":[...], "next":..., "total":...}; returns the number of rows written
+    //  as ndjson the rows are written one per line followed by a {"next":..., "total":...} line
+    private int executePage(java.sql.Connection con, StatementPlan plan, PageRequest page, String responseType, Map<String, String[]> parameterMap, ResponseBuffer buffer, QueryControl control) throws SQLException, NamingException, IOException {
+        String dialect = ConnectionHandler.get(this.connectionName).getDialect(con);
+        String sql = page.toSql(plan.sql, dialect);
+        ResultWriter writer = ResultWriters.create(responseType, ResultWriters.getLayout(parameterMap), buffer);
+        int rows;
+        PreparedStatement ps = null;
+        try {
+            log.debug("getting prepared statement for page : " + sql);
+            ps = con.prepareStatement(sql);
+            start(ps, control);
+            plan.bind(ps, parameterMap);
+            if (page.isKeyset() && page.after != null)
+                ps.setString(plan.parameters.length + 1, page.after);
+            if (page.maxRows > 0)
+                ps.setMaxRows(page.maxRows);
+            log.debug("executing query...");
+            rows = writeRows(executeQuery(ps, control), writer, page);
+        }
+        finally {
+            if (ps != null) {
+                try {ps.close();}
+                catch (SQLException stmtex) {log.warn("exception attempting to close non-null prepared statement: " + stmtex);}
+            }
+        }
+        long total = -1;
+        if (page.count) {
+            ps = null;
             try {
-                ConnectionHandler.destroy();
-                ConnectionHandler.init();
+                ps = con.prepareStatement(page.toCountSql(plan.sql));
+                start(ps, control);
+                plan.bind(ps, parameterMap);
+                ResultSet rs = executeQuery(ps, control);
+                total = rs.next() ? rs.getLong(1) : 0;
+            }
+            finally {
+                if (ps != null) {
+                    try {ps.close();}
+                    catch (SQLException stmtex) {log.warn("exception attempting to close non-null prepared statement: " + stmtex);}
+                }
             }
-            catch (Exception ex) {log.fatal("Exception attempting to reset system connections: " + ex);}
         }
+        writer.end(page.getNext(), total);
+        return rows;
+    }
+
+    // runs the action once per object in a json array of parameter objects using jdbc batching in one transaction and
+    //  writes the update count of each row
+    public void executeBatch(JSONReader rowReader, String action, OutputStream out) throws SQLException, NamingException, IOException {
+        executeBatch(rowReader.readParameterArray(), action, out, new QueryControl(0));
+    }
 
-        // if we are set for caching then reset the cache if we have updated
-        if (this.cached && updatedRecs > 0)
-            this.cachedResult = cache;
-        return cache;
+    // as above for rows already read from the body; we never read from the client while we hold a connection (and an
+    //  open transaction) so the caller reads them first.  the control cancels the batch and carries the deadline
+    public void executeBatch(List<LinkedHashMap<String, String[]>> rows, String action, OutputStream out, QueryControl control) throws SQLException, NamingException, IOException {
+        RequestMetrics metrics = Metrics.getRequestMetrics(this.path);
+        long start = System.nanoTime();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        boolean failed = true;
+        try {
+            executeBatchPlan(rows, action, counter, control);
+            failed = false;
+        }
+        finally {
+            metrics.record(System.nanoTime() - start, 0, counter.getCount(), failed);
+        }
+    }
+
+    private void executeBatchPlan(List<LinkedHashMap<String, String[]>> rows, String action, OutputStream out, QueryControl control) throws SQLException, NamingException, IOException {
+        if (action == null || action.equalsIgnoreCase("query"))
+            throw new SQLException("[" + this.path + "] batches are only supported for insert, update and delete.");
+        StatementPlan plan = getPlan(action);
+        if (plan == null)
+            throw new SQLException("[" + this.path + "] does not have [" + action + "] sql defined.");
+        if (plan.callable)
+            throw new SQLException("[" + this.path + "] batches are not supported for callable statements.");
+
+        List<int[]> counts = new ArrayList<int[]>();
+        int pending = 0;
+        java.sql.Connection con = null;
+        PreparedStatement ps = null;
+        boolean autoCommit = true;
+        // batches take a slot under the limit but run too long and uneven to adjust it
+        AdaptiveLimit limit = getLimit();
+        if (limit != null)
+            limit.acquire();
+        try
+        {
+            con = ConnectionHandler.getConnection(this.connectionName);
+            autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+            ps = con.prepareStatement(plan.sql);
+            start(ps, control);
+            for (LinkedHashMap<String, String[]> row : rows) {
+                plan.bind(ps, row);
+                ps.addBatch();
+                // send large batches in chunks so the driver doesn't have to hold every row
+                if (++pending == BATCH_SIZE) {
+                    counts.add(ps.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0)
+                counts.add(ps.executeBatch());
+            con.commit();
+        }
+        catch (SQLException ex) {
+            rollback(con);
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            rollback(con);
+            throw ex;
+        }
+        finally
+        {
+            if (ps != null) {
+                try {ps.close();}
+                catch (SQLException stmtex) {log.warn("exception attempting to close non-null prepared statement: " + stmtex);}
+            }
+            if (con != null) {
+                try {con.setAutoCommit(autoCommit);}
+                catch (SQLException acex) {log.warn("exception attempting to reset auto commit on batch connection: " + acex);}
+                try {con.close();}
+                catch (SQLException conex) {log.warn("exception attempting to close non-null connection: " + conex);}
+            }
+            if (limit != null)
+                limit.release();
+        }
+
+        // NOTE: drivers may report Statement.SUCCESS_NO_INFO (-2) for a row instead of a count
+        int updatedRecs = 0;
+        ResponseBuffer buffer = new ResponseBuffer(out);
+        buffer.append("{\"update_counts\":[");
+        boolean first = true;
+        for (int[] chunk : counts) {
+            for (int count : chunk) {
+                if (!first)
+                    buffer.append(',');
+                first = false;
+                buffer.append(count);
+                if (count > 0)
+                    updatedRecs += count;
+            }
+        }
+        buffer.append("], \"update_count\":\"").append(updatedRecs).append("\"}");
+        buffer.close();
+        // any row ran so the data may have changed even if the driver didn't tell us how many
+        if (!first)
+            ResultCache.invalidate(this.path);
+    }
+
+    // applies our query timeout (clamped by the client's deadline) and lets the control cancel the statement
+    private void start(Statement statement, QueryControl control) throws SQLException {
+        control.register(statement);
+        int timeout = control.getQueryTimeout(queryTimeout);
+        if (timeout > 0)
+            statement.setQueryTimeout(timeout);
+    }
+
+    // the execute calls are timed for the adaptive limit; it judges the database by them and not by how fast we stream
+    private ResultSet executeQuery(PreparedStatement ps, QueryControl control) throws SQLException {
+        long start = System.nanoTime();
+        try {return ps.executeQuery();}
+        finally {control.addExecuteTime(System.nanoTime() - start);}
+    }
+
+    private int executeUpdate(PreparedStatement ps, QueryControl control) throws SQLException {
+        long start = System.nanoTime();
+        try {return ps.executeUpdate();}
+        finally {control.addExecuteTime(System.nanoTime() - start);}
+    }
+
+    private boolean execute(CallableStatement cs, QueryControl control) throws SQLException {
+        long start = System.nanoTime();
+        try {return cs.execute();}
+        finally {control.addExecuteTime(System.nanoTime() - start);}
+    }
+
+    // the adaptive limit of our connection or null if it has none (or the connection isn't there; borrowing reports that)
+    private AdaptiveLimit getLimit() {
+        Connection connection = ConnectionHandler.get(this.connectionName);
+        return connection == null ? null : connection.getLimit();
+    }
+
+    private void rollback(java.sql.Connection con) {
+        if (con == null)
+            return;
+        try {con.rollback();}
+        catch (SQLException rbex) {log.warn("exception attempting to roll back batch: " + rbex);}
     }
 
     public String toString()
@@ -437,7 +554,8 @@ public class Configuration
         buffer.append("insert=").append(insertStatement).append(", ");
         buffer.append("update=").append(updateStatement).append(", ");
         buffer.append("delete=").append(deleteStatement).append(", ");
-        buffer.append("keywords={").append(keywords).append("} ");
+        buffer.append("keywords={").append(keywords).append("}, ");
+        buffer.append("settings={").append(settings).append("} ");
         return buffer.toString();
     }
     public String toXML() {
@@ -450,6 +568,7 @@ public class Configuration
         buffer.append("<updateSql><![CDATA[").append(this.updateStatement == null ? "" : this.updateStatement).append("]]></updateSql>");
         buffer.append("<deleteSql><![CDATA[").append(this.deleteStatement == null ? "" : this.deleteStatement).append("]]></deleteSql>");
         buffer.append("<keywords><![CDATA[").append(this.keywords == null ? "" : this.keywords).append("]]></keywords>");
+        buffer.append("<settings><![CDATA[").append(this.settings == null ? "" : this.settings).append("]]></settings>");
         buffer.append("</configuration>");
         log.debug("toXML string: " + buffer.toString());
         return  buffer.toString();
@@ -462,7 +581,8 @@ public class Configuration
         buffer.append("\", \"insert_statement\":\"").append(this.insertStatement == null ? "" : this.insertStatement);
         buffer.append("\", \"update_statement\":\"").append(this.updateStatement == null ? "" : this.updateStatement);
         buffer.append("\", \"delete_statement\":\"").append(this.deleteStatement == null ? "" : this.deleteStatement);
-        buffer.append("\", \"keywords\":\"").append(this.keywords == null ? "" : this.keywords).append("\"}");
+        buffer.append("\", \"keywords\":\"").append(this.keywords == null ? "" : this.keywords);
+        buffer.append("\", \"settings\":\"").append(this.settings == null ? "" : this.settings).append("\"}");
         log.debug("toJSON string: " + buffer.toString());
         return buffer.toString();
     }
@@ -476,61 +596,47 @@ public class Configuration
                 .append("&updateSql=").append(this.updateStatement == null ? "" : URLEncoder.encode(this.updateStatement, "UTF-8"))
                 .append("&deleteSql=").append(this.deleteStatement == null ? "" : URLEncoder.encode(this.deleteStatement, "UTF-8"))
                 .append("&keywords=").append(this.keywords == null ? "" : URLEncoder.encode(this.keywords, "UTF-8"))
+                .append("&settings=").append(this.settings == null ? "" : URLEncoder.encode(this.settings, "UTF-8"))
                 .append("&id=").append(URLEncoder.encode(this.path, "UTF-8"));
         return sb.toString();
     }
 
 
-    private String toResponse(String returnType, ResultSet rs) throws SQLException {
-        // thin wrapper to handle shifting between JSON and XML etc.
-        return toJSON(rs);
+    // writes the results in the format for the return type (see ResultWriters); returns the number of rows written
+    private int toResponse(String returnType, String layout, ResultSet rs, ResponseBuffer buffer) throws SQLException, IOException {
+        ResultWriter writer = ResultWriters.create(returnType, layout, buffer);
+        int rows = writeRows(rs, writer, null);
+        writer.end(null, -1);
+        return rows;
     }
-    private String toResponse(String returnType, int recordsUpdated) {
-       // return a thin wrapper to handle different return types
-       return toJSON(recordsUpdated);
+    private void toResponse(String returnType, int recordsUpdated, ResponseBuffer buffer) throws IOException {
+        ResultWriters.create(returnType, buffer).writeUpdateCount(recordsUpdated);
     }
 
-    private String toJSON(int updateCount) {
-        StringBuilder buffer = new StringBuilder(50);
-        buffer.append("{\"update_count\":\"").append(updateCount).append("\"}");
-        return buffer.toString();
-    }
-    private String toJSON(ResultSet rs) throws SQLException
-    {
-        log.debug("converting to json: " + rs);
+    // starts the writer and writes each row; if we are paging only the rows of the page are written: skips any offset
+    //  the sql couldn't and stops at the limit
+    private int writeRows(ResultSet rs, ResultWriter writer, PageRequest page) throws SQLException, IOException {
+        log.debug("writing results: " + rs);
+        writer.start(rs == null ? null : rs.getMetaData(), page != null);
         if (rs == null)
-            return "[]";
-        StringBuilder buffer = new StringBuilder(200);
-        while (rs.next())
-        {
-            // will pass an array of objects; if problems then convert to table name with array of objects for each record
-            if (buffer.length() == 0)
-                buffer.append("[");
-            if (buffer.length() > 1)
-                buffer.append(", ");
-            buffer.append("{");
-            ResultSetMetaData metaData = rs.getMetaData();
-            for (int i=1; i<=metaData.getColumnCount(); i++)
-            {
-                if (i > 1)
-                    buffer.append(",");
-//                buffer.append("\"").append(metaData.getColumnLabel(i)).append("\":\"").append(rs.getString(i)).append("\"");
-                // JSON deals with nulls... don't wrap in strings (also for integers and such not either once syntax is complete add here
-                buffer.append("\"").append(metaData.getColumnLabel(i).toLowerCase()).append("\":");
-                log.debug(metaData.getColumnLabel(i).toLowerCase() + " : " + rs.getString(i));
-                if (rs.getString(i) == null)
-                    buffer.append(rs.getString(i));
-                else
-                    buffer.append("\"").append(toJSONString(rs.getString(i))).append("\"");
+            return 0;
+        int rows = 0;
+        int skip = page == null ? 0 : page.skip;
+        while (rs.next()) {
+            if (skip > 0) {
+                skip--;
+                continue;
             }
-            buffer.append("}");
-        }
-        if (buffer.length() > 0) {
-            buffer.append("]");
-            return buffer.toString();
+            if (page != null && page.limit > 0 && rows == page.limit) {
+                page.hasMore = true;
+                break;
+            }
+            if (page != null)
+                page.setLastKey(rs);
+            writer.writeRow(rs);
+            rows++;
         }
-        else
-            return "[]";
+        return rows;
     }
 
     // strips the options out of a sql statement
@@ -684,25 +790,6 @@ public class Configuration
             return "";
     }
 
-    // todo: change the the systems return type not just osx's
-    private String toJSONString(String string) {
-        // strip any bom character
-        string = Convert.replace(string, "\uFEFF", "");
-        // convert all crlf and lf to newline; escape with extra \
-//        string = Convert.replace(string, "\r\n", "\n");
-//        string = Convert.replace(string, "\r", "\n");
-        string = Convert.replace(string, "\r", "\\r", "\\r");
-        string = Convert.replace(string, "\n", "\\n", "\\n");
-        // escape any whitespace chars that cause problems
-        string = Convert.replace(string, "\t", "\\t", "\\t");
-        // convert all quotes to double escaped quotes
-        string = Convert.replace(string, "\"", "\\\"");
-        string = Convert.replace(string, "'", "\\\'", "\\\'");
-        string = Convert.replace(string, "\'", "\\\'", "\\\'");
-//        System.out.println(string);
-      	return string;
-    }
-
     public static void main (String[] args) {
 //        Configuration configuration = new Configuration();
 //        String originalSql = "update table bla set values (?) and id=?|l:[0]| where key = ? |i|";
@@ -15,6 +15,7 @@
  */
 package com.innavace.ds.config;
 
+import com.innavace.ds.Convert;
 import com.innavace.ds.wrapper.OrderedParameterWrapper;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
@@ -22,7 +23,9 @@ import org.apache.log4j.Logger;
 import javax.naming.NamingException;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
@@ -36,35 +39,59 @@ import java.util.*;
 public class ConfigurationHandler
 {
     public static Logger log = Logger.getLogger(ConfigurationHandler.class);
-    private static Map<String, Configuration> configurationsMap = new LinkedHashMap<String, Configuration>();
-    private static Map<String, String> registryMap = new LinkedHashMap<String, String>();
+    private static final String CONFIGURATIONS_INSERT_SQL = "INSERT INTO CONFIGURATIONS (CONNECTION_NAME, PATH, QUERY_STATEMENT, INSERT_STATEMENT, UPDATE_STATEMENT, DELETE_STATEMENT, KEYWORDS, SETTINGS) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String CONFIGURATIONS_UPDATE_SQL = "UPDATE CONFIGURATIONS SET CONNECTION_NAME=?, PATH=?, QUERY_STATEMENT=?, " +
+            "INSERT_STATEMENT=?, UPDATE_STATEMENT=?, DELETE_STATEMENT=?, KEYWORDS=?, SETTINGS=? WHERE PATH=?";
+    // the configurations and registry entries currently being served; readers never lock, init() builds a new one and
+    //  swaps it in so a request sees either the old or the new registry but never one that is half loaded
+    private static volatile Registry registry = new Registry(new LinkedHashMap<String, Configuration>(), new LinkedHashMap<String, String>());
 
+    /**
+     * Immutable snapshot of everything loaded by init()
+     */
+    private static final class Registry {
+        final Map<String, Configuration> configurationsMap;
+        final Map<String, String> registryMap;
+
+        Registry(Map<String, Configuration> configurationsMap, Map<String, String> registryMap) {
+            this.configurationsMap = Collections.unmodifiableMap(configurationsMap);
+            this.registryMap = Collections.unmodifiableMap(registryMap);
+        }
+    }
+
+    // NOTE: synchronized only so that reloads don't overlap; requests keep using the current registry while we load
     public static synchronized void init() throws NamingException, SQLException {
-        initConfigurations();
+        Map<String, Configuration> configurationsMap = initConfigurations();
         log.info("data configurations initialized");
-        if (!hasConfigurations())
+        if (configurationsMap.size() == 0)
             log.warn("no configurations crated: This shouldn't happen.");
-        initSystemRegistry();
+        Map<String, String> registryMap = initSystemRegistry();
         if (registryMap.size() == 0)
             log.warn("no registry entries loaded.");
         log.info("system registry initialized");
+        registry = new Registry(configurationsMap, registryMap);
+        // statements may have changed so anything we cached is suspect
+        ResultCache.setMaxBytes(Convert.toLng(registryMap.get("CACHE_MAX_BYTES")));
+        ResultCache.clear();
     }
 
-    public static boolean hasConfigurations() { return configurationsMap.size() > 0; }
+    public static boolean hasConfigurations() { return registry.configurationsMap.size() > 0; }
+
+    public static Collection<Configuration> getConfigurations() { return registry.configurationsMap.values(); }
 
-    public static synchronized Collection<Configuration> getConfigurations() { return configurationsMap.values(); }
+    public static Configuration getConfiguration(String path) { return registry.configurationsMap.get(path); }
 
-    public static Configuration getConfiguration(String path) { return configurationsMap.get(path); }
+    public static Set<Map.Entry<String, String>> getRegistryEntries() { return registry.registryMap.entrySet(); }
 
-    public static synchronized Set<Map.Entry<String, String>> getRegistryEntries() { return registryMap.entrySet(); }
+    public static String getRegistryEntry(String key) { return registry.registryMap.get(key); }
 
-    private static synchronized void initConfigurations() throws NamingException, SQLException {
+    private static Map<String, Configuration> initConfigurations() throws NamingException, SQLException {
         Connection con = null;
         Statement stmt = null;
         ResultSet rs = null;
         // attempt to read in configurations from the datasource;
-        if (configurationsMap.size() > 0)
-            configurationsMap.clear();
+        Map<String, Configuration> configurationsMap = new LinkedHashMap<String, Configuration>();
         try
         {
             con = ConnectionHandler.getConnection("default");
@@ -82,6 +109,14 @@ public class ConfigurationHandler
                 catch (Exception ex) {log.debug("attempted commit but failed: " + ex);}
                 rs = stmt.executeQuery("SELECT * FROM CONFIGURATIONS");
             }
+            // tables created by older versions may be missing columns we added later
+            if (!getColumnNames(rs).contains("SETTINGS")) {
+                rs.close();
+                upgradeDatabaseSchema(stmt);
+                try {con.commit();}
+                catch (Exception ex) {log.debug("attempted commit but failed: " + ex);}
+                rs = stmt.executeQuery("SELECT * FROM CONFIGURATIONS");
+            }
             while(rs.next())
             {
                 configuration = new Configuration();
@@ -98,6 +133,9 @@ public class ConfigurationHandler
                 configuration.deleteStatement = rs.getString("DELETE_STATEMENT");
 //                configuration.cached = (rs.getString("CACHED") != null && rs.getString("CACHED").equalsIgnoreCase("true"));
                 configuration.keywords = rs.getString("KEYWORDS");
+                configuration.settings = rs.getString("SETTINGS");
+                // parse the statements once here instead of on every request
+                configuration.compile();
                 // todo - determine if we want to try to connect to a table to determine if it exists
                 // NOTE: if not exists try to create it (will error if we don't have read permissions; test
                 configurationsMap.put(configuration.path, configuration);
@@ -118,13 +156,15 @@ public class ConfigurationHandler
                 catch (Exception ex) {log.warn("Exception attempting to close non null connection in configuration handler.init().  May have a memory leak!: ",  ex);}
             }
         }
+        return configurationsMap;
     }
 
     public static synchronized void createDatabaseSchema(Statement stmt)
     {
         String sql = "CREATE TABLE configurations (" + // CONFIGURATION_ID BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY, " +
             "CONNECTION_NAME VARCHAR(50), PATH VARCHAR(1000) PRIMARY KEY, " +
-            "QUERY_STATEMENT VARCHAR(2000) NOT NULL, INSERT_STATEMENT VARCHAR(1000), UPDATE_STATEMENT VARCHAR(1000), DELETE_STATEMENT VARCHAR(1000), KEYWORDS VARCHAR(2000))";
+            "QUERY_STATEMENT VARCHAR(2000) NOT NULL, INSERT_STATEMENT VARCHAR(1000), UPDATE_STATEMENT VARCHAR(1000), DELETE_STATEMENT VARCHAR(1000), KEYWORDS VARCHAR(2000), " +
+            "SETTINGS VARCHAR(1000))";
         try {stmt.execute(sql);log.info("SYSTEM TABLE [CONFIGURATIONS] CREATED");}
         catch (SQLException sqlex) {log.fatal("Exception attempting to create configurations table: ", sqlex);}
         log.info("created configuration table.");
@@ -134,10 +174,8 @@ public class ConfigurationHandler
         sql = "INSERT INTO configurations (CONNECTION_NAME, PATH, " +
             "QUERY_STATEMENT, INSERT_STATEMENT, UPDATE_STATEMENT, DELETE_STATEMENT, KEYWORDS) VALUES (" +
             "'default', '/configurations', 'SELECT * FROM CONFIGURATIONS', " +
-            "'INSERT INTO CONFIGURATIONS (CONNECTION_NAME, PATH, QUERY_STATEMENT, INSERT_STATEMENT, UPDATE_STATEMENT, DELETE_STATEMENT, KEYWORDS) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?)', " +
-            "'UPDATE CONFIGURATIONS SET CONNECTION_NAME=?, PATH=?, QUERY_STATEMENT=?, " +
-                "INSERT_STATEMENT=?, UPDATE_STATEMENT=?, DELETE_STATEMENT=?, KEYWORDS=? WHERE PATH=?', " +
+            "'" + CONFIGURATIONS_INSERT_SQL + "', " +
+            "'" + CONFIGURATIONS_UPDATE_SQL + "', " +
             "'DELETE FROM CONFIGURATIONS WHERE PATH=?', '_system, product:console')";
         log.debug(sql);
         try {stmt.execute(sql);log.info("SYSTEM [CONFIGURATIONS] DEFAULT DATA CREATED");}
@@ -145,11 +183,8 @@ public class ConfigurationHandler
         sql = "INSERT INTO configurations (CONNECTION_NAME, PATH, " +
             "QUERY_STATEMENT, INSERT_STATEMENT, UPDATE_STATEMENT, DELETE_STATEMENT, KEYWORDS) VALUES (" +
             "'default', '/connections', 'SELECT * FROM CONNECTIONS', " +
-            "'INSERT INTO CONNECTIONS (NAME, TYPE, JDBC_DRIVER, JDBC_URL, JDBC_USERNAME, JDBC_PASSWORD, JNDI_NAME, JNDI_CONTEXT, DESCRIPTION) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)', " +
-            "'UPDATE CONNECTIONS SET NAME=?, TYPE=?, " +
-                "JDBC_DRIVER=?, JDBC_URL=?, JDBC_USERNAME=?, JDBC_PASSWORD=?, " +
-                "JNDI_NAME=?, JNDI_CONTEXT=?, DESCRIPTION=? WHERE NAME=?', " +
+            "'" + ConnectionHandler.CONNECTIONS_INSERT_SQL + "', " +
+            "'" + ConnectionHandler.CONNECTIONS_UPDATE_SQL + "', " +
             "'DELETE FROM CONNECTIONS WHERE NAME=?', '_system, product:console')";
         log.info(sql);
         try {stmt.execute(sql);log.info("SYSTEM [CONNECTIONS] DEFAULT DATA CREATED");}
@@ -178,13 +213,43 @@ public class ConfigurationHandler
         log.info("created test data.");
     }
 
-    public static synchronized void clearCache() {
-        Collection<Configuration> configurations = configurationsMap.values();
-        for (Configuration configuration : configurations)
-            configuration.cachedResult = null;
+    // adds the columns introduced since the configurations table was first created and points the /configurations
+    // statements at them so they can be saved from the console and uploads
+    public static synchronized void upgradeDatabaseSchema(Statement stmt) {
+        String sql = "ALTER TABLE CONFIGURATIONS ADD SETTINGS VARCHAR(1000)";
+        try {stmt.execute(sql);log.info("SYSTEM TABLE [CONFIGURATIONS] UPGRADED: ADDED [SETTINGS]");}
+        catch (SQLException sqlex) {log.fatal("Exception attempting to add settings to configurations table: ", sqlex);}
+        PreparedStatement ps = null;
+        try {
+            ps = stmt.getConnection().prepareStatement("UPDATE CONFIGURATIONS SET INSERT_STATEMENT=?, UPDATE_STATEMENT=? WHERE PATH='/configurations'");
+            ps.setString(1, CONFIGURATIONS_INSERT_SQL);
+            ps.setString(2, CONFIGURATIONS_UPDATE_SQL);
+            ps.executeUpdate();
+            log.info("SYSTEM [CONFIGURATIONS] STATEMENTS UPGRADED");
+        }
+        catch (SQLException sqlex) {log.fatal("Exception attempting to upgrade /configurations statements: ", sqlex);}
+        finally {
+            if (ps != null) {
+                try {ps.close();}
+                catch (Exception ex) {log.warn("Exception attempting to close non null statement in configuration handler.upgradeDatabaseSchema(): " + ex);}
+            }
+        }
+    }
+
+    // returns the upper case column names of a result set so we can check for optional columns
+    static Set<String> getColumnNames(ResultSet rs) throws SQLException {
+        Set<String> columns = new HashSet<String>();
+        ResultSetMetaData metaData = rs.getMetaData();
+        for (int i=1; i<=metaData.getColumnCount(); i++)
+            columns.add(metaData.getColumnName(i).toUpperCase());
+        return columns;
+    }
+
+    public static void clearCache() {
+        ResultCache.clear();
     }
 
-    private static void initSystemRegistry() throws NamingException, SQLException
+    private static Map<String, String> initSystemRegistry() throws NamingException, SQLException
     {
         // keep it simple; read the system registry values from the sysreg table and put them in the map
         // assume we have already run the getConfigurations() which creates the default tables if not there and populates
@@ -192,6 +257,7 @@ public class ConfigurationHandler
         Connection con = ConnectionHandler.getConnection("default");
         Statement stmt = null;
         ResultSet rs = null;
+        Map<String, String> registryMap = new LinkedHashMap<String, String>();
 
         try
         {
@@ -233,16 +299,17 @@ public class ConfigurationHandler
                 catch (Exception ex) {log.warn("Exception attempting to close non null connection in configuration handler.initRegistry().  May have a memory leak!: " + ex);}
             }
         }
+        return registryMap;
     }
 
-    public static synchronized Configuration get(String path) {
+    public static Configuration get(String path) {
         if (path == null)
             return null;
-        return configurationsMap.get(path);
+        return registry.configurationsMap.get(path);
     }
 
-    public static synchronized  boolean hasConfiguration(String path) {
-        return path != null && configurationsMap.get(path) != null;
+    public static boolean hasConfiguration(String path) {
+        return path != null && registry.configurationsMap.get(path) != null;
     }
 
     public static synchronized boolean updateConfiguration(Configuration configuration) throws NamingException, SQLException, IOException {
@@ -257,9 +324,9 @@ public class ConfigurationHandler
         connectionConfiguration.execute(parameterWrapper.getParameterMap(), "text/json", existingConfiguration != null ? "update" : "insert");
         return true;
     }
-    public static synchronized String toJSON() {
+    public static String toJSON() {
         StringBuilder buffer = new StringBuilder(400);
-        Collection<Configuration> configurations = configurationsMap.values();
+        Collection<Configuration> configurations = registry.configurationsMap.values();
         buffer.append("[");
         for (Configuration configuration : configurations) {
             if (buffer.length() > 1)
@@ -270,17 +337,17 @@ public class ConfigurationHandler
         return buffer.toString();
     }
 
-    public static synchronized String toJSON(String key) {
-        Configuration configuration = configurationsMap.get(key);
+    public static String toJSON(String key) {
+        Configuration configuration = registry.configurationsMap.get(key);
         if (configuration == null)
             return "{}";
         return configuration.toJSON();
     }
 
-    public static synchronized String toXML() {return toXML(null);}
-    public static synchronized String toXML(String filter) {
+    public static String toXML() {return toXML(null);}
+    public static String toXML(String filter) {
         StringBuilder buffer = new StringBuilder(400);
-        Collection<Configuration> configurations = configurationsMap.values();
+        Collection<Configuration> configurations = registry.configurationsMap.values();
         buffer.append("<configurations>");
         String fragment;
         for (Configuration configuration : configurations) {
@@ -299,9 +366,9 @@ public class ConfigurationHandler
         buffer.append("</configurations>");
         return buffer.toString();
     }
-    public static synchronized String toXML(String filter, String tagFilter) {
+    public static String toXML(String filter, String tagFilter) {
         StringBuilder buffer = new StringBuilder(400);
-        Collection<Configuration> configurations = configurationsMap.values();
+        Collection<Configuration> configurations = registry.configurationsMap.values();
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         buffer.append("<configurations>");
         for (Configuration configuration : configurations) {
@@ -313,12 +380,12 @@ public class ConfigurationHandler
         return buffer.toString();
     }
     // path filter is pretty simple.  for an element return true if the path matches; false otherwise
-    private static synchronized boolean filterPath(Configuration configuration, String pathFilter) {
+    private static boolean filterPath(Configuration configuration, String pathFilter) {
         return pathFilter == null || pathFilter.length() == 0 || configuration.path.startsWith(pathFilter);
     }
     // tag filter is a bit more complicated; start from left to right and determine if the element is shown
     //      based on keywords/tags on the element and the filter sent in.
-    private static synchronized boolean filterTags(Configuration configuration, String tagFilter) {
+    private static boolean filterTags(Configuration configuration, String tagFilter) {
 		// by precedence if we have a ! it goes first; ie: web product:web !crm !pie
 		//		translates to web and product:web and not crm and not pie
 		// strip each word block by spaces
@@ -370,7 +437,7 @@ public class ConfigurationHandler
         }
         return lvalue;
     }
-    private static synchronized boolean evaluateCondition(String part, String[] tags) {
+    private static boolean evaluateCondition(String part, String[] tags) {
         String realValue = part;
       		if (part.indexOf('!') == 0)
       			realValue = realValue.substring(1);
@@ -383,7 +450,7 @@ public class ConfigurationHandler
       			return found;
 
     }
-    private static synchronized boolean inArray(String value, String[] arr) {
+    private static boolean inArray(String value, String[] arr) {
         boolean contains = false;
         for (String item : arr) {
             if (value.equalsIgnoreCase(item)) {
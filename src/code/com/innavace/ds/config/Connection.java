@@ -17,7 +17,9 @@ package com.innavace.ds.config;
 
 import com.innavace.ds.Convert;
 import org.apache.log4j.Logger;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
 import org.apache.tomcat.jdbc.pool.DataSource;
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
 import org.apache.tomcat.jdbc.pool.PoolProperties;
 
 import javax.naming.Context;
@@ -25,6 +27,8 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * User: sstacha
@@ -33,6 +37,13 @@ import java.sql.SQLException;
  */
 public class Connection {
     public static Logger log = Logger.getLogger(Connection.class);
+    public static final String DIALECT_H2 = "h2";
+    public static final String DIALECT_MYSQL = "mysql";
+    public static final String DIALECT_SQLSERVER = "sqlserver";
+    // 2012 (version 11) and later; these can page with offset / fetch
+    public static final String DIALECT_SQLSERVER_2012 = "sqlserver2012";
+    public static final String DIALECT_OTHER = "other";
+    public static final int DEFAULT_MAX_ACTIVE = 300;
 
     public String type;
     public String name;
@@ -43,7 +54,27 @@ public class Connection {
     public String jdbcUserName;
     public String jdbcPassword;
     public String description;
-    private DataSource dataSource;
+    // name=value; pairs used to size and tune the jdbc pool (see applyPoolSettings)
+    public String poolSettings;
+    // built on first use; volatile so the double checked lock in getConnection() only builds one pool
+    private volatile DataSource dataSource;
+    // jndi data sources are looked up once and kept until the connection is closed or refreshed
+    private volatile javax.sql.DataSource jndiDataSource;
+    // after a failed lookup we wait before trying again instead of hitting jndi on every request
+    private static final long JNDI_RETRY_MIN_MILLIS = 1000;
+    private static final long JNDI_RETRY_MAX_MILLIS = 60000;
+    private int jndiFailures = 0;
+    private long jndiRetryAt = 0;
+    private NamingException jndiLastException;
+    // sql dialect of the database behind this connection; read from the driver metadata on first use
+    private volatile String dialect;
+    // threads that run request work against this connection; built on first use like the pool
+    private volatile ConnectionExecutor executor;
+    // statements allowed in flight; adjusted from latency as we go (null once built if the limit is turned off)
+    private volatile AdaptiveLimit limit;
+    private volatile boolean limitBuilt;
+    // set by close(); a reload replaced us so requests still holding us must not build a new pool, executor or limit
+    private volatile boolean closed;
 
     public Connection() { }
     public Connection(String name, String type, String jndiContext, String jndiDatasource, String jdbcDriver,
@@ -140,7 +171,121 @@ public class Connection {
     {
         // return a connection based on type
         if (this.type.equalsIgnoreCase("jndi")) {
-            // return the connection if possible from the JNDI calls
+            javax.sql.DataSource ds = jndiDataSource;
+            if (ds == null)
+                ds = lookupDataSource();
+            // Allocate and use a connection from the pool
+            return ds.getConnection();
+        }
+        else if (this.type.equalsIgnoreCase("jdbc")) {
+            DataSource ds = dataSource;
+            if (ds == null) {
+                synchronized (this) {
+                    ds = dataSource;
+                    if (ds == null) {
+                        if (closed)
+                            throw new SQLException("Connection [" + name + "] was closed by a reload; try again.");
+                        ds = createDataSource();
+                        dataSource = ds;
+                    }
+                }
+            }
+            return ds.getConnection();
+        }
+        else {
+            System.out.println("CONNECTION TYPE [" + type + "] WAS REQUESTED BUT THE CODE BLOCK WAS NOT CREATED TO HANDLE THIS TYPE!");
+            return null;
+        }
+
+    }
+
+    // returns one of the DIALECT_ constants for the database the passed connection (borrowed from us) talks to
+    public String getDialect(java.sql.Connection con) throws SQLException {
+        String result = dialect;
+        if (result == null) {
+            String product = Convert.toString(con.getMetaData().getDatabaseProductName()).toLowerCase();
+            if (product.contains("h2"))
+                result = DIALECT_H2;
+            else if (product.contains("mysql") || product.contains("mariadb"))
+                result = DIALECT_MYSQL;
+            else if (product.contains("sql server"))
+                result = con.getMetaData().getDatabaseMajorVersion() >= 11 ? DIALECT_SQLSERVER_2012 : DIALECT_SQLSERVER;
+            else
+                result = DIALECT_OTHER;
+            log.debug("connection [" + name + "] database [" + product + "] using dialect [" + result + "]");
+            dialect = result;
+        }
+        return result;
+    }
+
+    // returns the executor request work for this connection runs on (sized by the executor* pool settings)
+    public ConnectionExecutor getExecutor() {
+        ConnectionExecutor result = executor;
+        if (result == null) {
+            synchronized (this) {
+                result = executor;
+                if (result == null) {
+                    checkOpen();
+                    result = new ConnectionExecutor(name, Convert.toSettings(poolSettings));
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    // returns the limit to take before borrowing from the pool or null if the limit is turned off
+    public AdaptiveLimit getLimit() {
+        if (!limitBuilt) {
+            synchronized (this) {
+                if (!limitBuilt) {
+                    checkOpen();
+                    Map<String, String> settings = Convert.toSettings(poolSettings);
+                    int maxActive = settings.containsKey("maxactive") ? Convert.toInt(settings.get("maxactive")) : DEFAULT_MAX_ACTIVE;
+                    AdaptiveLimit result = new AdaptiveLimit(name, settings, maxActive);
+                    limit = result.isEnabled() ? result : null;
+                    limitBuilt = true;
+                }
+            }
+        }
+        return limit;
+    }
+
+    // a request that picked us up just before a reload gets a 503 and tries again on the new connection
+    private void checkOpen() {
+        if (closed)
+            throw new RejectedExecutionException("connection [" + name + "] was closed by a reload");
+    }
+
+    // returns the limit if it has been built and is on; else null
+    public AdaptiveLimit findLimit() {
+        return limit;
+    }
+
+    // returns the executor if it has been started; else null
+    public ConnectionExecutor findExecutor() {
+        return executor;
+    }
+
+    // returns the tomcat pool behind this connection if it has been created (jdbc pools or jndi tomcat pools); else null
+    public ConnectionPool getPool() {
+        javax.sql.DataSource ds = dataSource != null ? dataSource : jndiDataSource;
+        if (ds instanceof DataSourceProxy)
+            return ((DataSourceProxy) ds).getPool();
+        return null;
+    }
+
+    // looks up the jndi data source once; failures are remembered and retried with an increasing delay
+    private synchronized javax.sql.DataSource lookupDataSource() throws NamingException {
+        if (jndiDataSource != null)
+            return jndiDataSource;
+        long now = System.currentTimeMillis();
+        if (now < jndiRetryAt) {
+            NamingException nex = new NamingException("JNDI lookup for connection [" + name + "] failed; retrying in " + (jndiRetryAt - now) + "ms: " + jndiLastException.getMessage());
+            nex.setRootCause(jndiLastException);
+            throw nex;
+        }
+        try {
             // Obtain our environment naming context
             // Ex: context="java:comp/env"  datasource="jdbc/EmployeeDB"
             Context initCtx = new InitialContext();
@@ -151,58 +296,97 @@ public class Connection {
                 envCtx = initCtx;
 
             // Look up our data source
-            DataSource ds = (DataSource) envCtx.lookup(jndiDatasource);
-
-            // Allocate and use a connection from the pool
-            return ds.getConnection();
+            jndiDataSource = (javax.sql.DataSource) envCtx.lookup(jndiDatasource);
+            jndiFailures = 0;
+            jndiRetryAt = 0;
+            jndiLastException = null;
+            log.debug("cached jndi datasource for connection [" + name + "]: " + jndiDataSource);
+            return jndiDataSource;
         }
-        else if (this.type.equalsIgnoreCase("jdbc")) {
-            log.debug("datasource: " + dataSource);
-            if (dataSource != null) {
-                return dataSource.getConnection();
-            }
-
-            log.debug("building datasource pool from properties: [" + jdbcDriver + "]: " + jdbcUrl + " @ " + jdbcUserName + " / " + jdbcPassword);
-            // attempt to set up the datasource for the first time and return a connection
-            PoolProperties p = new PoolProperties();
-            p.setUrl(jdbcUrl);
-            p.setDriverClassName(jdbcDriver);
-            p.setUsername(jdbcUserName);
-            p.setPassword(jdbcPassword);
-            p.setJmxEnabled(true);
-//            p.setTestWhileIdle(false);
-            p.setTestOnBorrow(true);
-            p.setValidationQuery("SELECT 1");
-//            p.setTestOnReturn(false);
-//            p.setValidationInterval(30000);
-//            p.setTimeBetweenEvictionRunsMillis(30000);
-            p.setMaxActive(300);
-            p.setInitialSize(2);
-//            p.setMaxWait(10000);
-//            p.setRemoveAbandonedTimeout(60);
-//            p.setMinEvictableIdleTimeMillis(30000);
-//            p.setMinIdle(10);
-//            p.setLogAbandoned(true);
-//            p.setRemoveAbandoned(true);
-            p.setJdbcInterceptors(
-                    "org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;"+
-                    "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer");
-            dataSource = new DataSource();
-            dataSource.setPoolProperties(p);
-            log.debug("set properties...");
-            return dataSource.getConnection();
+        catch (NamingException nex) {
+            jndiFailures++;
+            jndiRetryAt = now + Math.min(JNDI_RETRY_MIN_MILLIS << Math.min(jndiFailures - 1, 16), JNDI_RETRY_MAX_MILLIS);
+            jndiLastException = nex;
+            log.warn("JNDI lookup for connection [" + name + "] failed (attempt " + jndiFailures + "); next retry after " + (jndiRetryAt - now) + "ms: " + nex);
+            throw nex;
         }
-        else {
-            System.out.println("CONNECTION TYPE [" + type + "] WAS REQUESTED BUT THE CODE BLOCK WAS NOT CREATED TO HANDLE THIS TYPE!");
-            return null;
+    }
+
+    // overrides the pool defaults with any values set in the pool settings for this connection
+    // NOTE: times are in milliseconds except removeAbandonedTimeout which tomcat takes in seconds
+    private void applyPoolSettings(PoolProperties p, Map<String, String> settings) {
+        if (settings.containsKey("maxactive"))
+            p.setMaxActive(Convert.toInt(settings.get("maxactive")));
+        if (settings.containsKey("initialsize"))
+            p.setInitialSize(Convert.toInt(settings.get("initialsize")));
+        if (settings.containsKey("maxidle"))
+            p.setMaxIdle(Convert.toInt(settings.get("maxidle")));
+        if (settings.containsKey("minidle"))
+            p.setMinIdle(Convert.toInt(settings.get("minidle")));
+        if (settings.containsKey("maxwait"))
+            p.setMaxWait(Convert.toInt(settings.get("maxwait")));
+        if (settings.containsKey("validationquery"))
+            p.setValidationQuery(settings.get("validationquery"));
+        if (settings.containsKey("validationinterval"))
+            p.setValidationInterval(Convert.toLng(settings.get("validationinterval")));
+        if (settings.containsKey("testonborrow"))
+            p.setTestOnBorrow(Convert.toBool(settings.get("testonborrow")));
+        if (settings.containsKey("testwhileidle"))
+            p.setTestWhileIdle(Convert.toBool(settings.get("testwhileidle")));
+        if (settings.containsKey("timebetweenevictionruns"))
+            p.setTimeBetweenEvictionRunsMillis(Convert.toInt(settings.get("timebetweenevictionruns")));
+        if (settings.containsKey("minevictableidletime"))
+            p.setMinEvictableIdleTimeMillis(Convert.toInt(settings.get("minevictableidletime")));
+        if (settings.containsKey("removeabandonedtimeout")) {
+            int timeout = Convert.toInt(settings.get("removeabandonedtimeout"));
+            p.setRemoveAbandoned(timeout > 0);
+            p.setRemoveAbandonedTimeout(timeout);
+            p.setLogAbandoned(timeout > 0);
         }
+        String interceptors = "org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;" +
+                "org.apache.tomcat.jdbc.pool.interceptor.StatementFinalizer";
+        int statementCacheSize = Convert.toInt(settings.get("statementcachesize"));
+        if (statementCacheSize > 0)
+            interceptors += ";org.apache.tomcat.jdbc.pool.interceptor.StatementCache(max=" + statementCacheSize + ")";
+        // NOTE: tomcat caps minIdle / maxIdle / initialSize to maxActive when the pool starts (and logs it)
+        p.setJdbcInterceptors(interceptors);
+    }
 
+    private DataSource createDataSource() {
+        log.debug("building datasource pool from properties: [" + jdbcDriver + "]: " + jdbcUrl + " @ " + jdbcUserName + " / " + jdbcPassword);
+        // set up the pool for the first time; callers hold our lock so only one pool gets built
+        PoolProperties p = new PoolProperties();
+        p.setUrl(jdbcUrl);
+        p.setDriverClassName(jdbcDriver);
+        p.setUsername(jdbcUserName);
+        p.setPassword(jdbcPassword);
+        p.setJmxEnabled(true);
+        p.setTestOnBorrow(true);
+        p.setValidationQuery("SELECT 1");
+        p.setMaxActive(DEFAULT_MAX_ACTIVE);
+        p.setInitialSize(2);
+        applyPoolSettings(p, Convert.toSettings(poolSettings));
+        DataSource ds = new DataSource();
+        ds.setPoolProperties(p);
+        log.debug("set properties...");
+        return ds;
     }
 
-    public void close()
+    // stops us for good; statements in flight finish and their connections are closed as they come back.  the executor
+    //  and limit are kept (shut down) so late callers are rejected instead of building new ones
+    public synchronized void close()
     {
+        closed = true;
         if (dataSource != null)
-            dataSource.close(true);
+            dataSource.close(false);
+        dataSource = null;
+        if (executor != null)
+            executor.shutdown();
+        // we don't own jndi data sources; just forget them so the next use looks them up again
+        jndiDataSource = null;
+        jndiFailures = 0;
+        jndiRetryAt = 0;
+        jndiLastException = null;
     }
 
     public String toXML() {
@@ -217,6 +401,7 @@ public class Connection {
         buffer.append("<jdbcUserName><![CDATA[").append(this.jdbcUserName == null ? "" : this.jdbcUserName).append("]]></jdbcUserName>");
         buffer.append("<jdbcPassword><![CDATA[").append(this.jdbcPassword == null ? "" : this.jdbcPassword).append("]]></jdbcPassword>");
         buffer.append("<description><![CDATA[").append(this.description == null ? "" : this.description).append("]]></description>");
+        buffer.append("<poolSettings><![CDATA[").append(this.poolSettings == null ? "" : this.poolSettings).append("]]></poolSettings>");
         buffer.append("</connection>");
         log.debug("toXML string: " + buffer.toString());
         return  buffer.toString();
@@ -229,6 +414,7 @@ public class Connection {
         buffer.append("\", \"jdbc_username\":\"").append(this.jdbcUserName).append("\", \"jdbc_password\":\"").append(this.jdbcPassword);
         buffer.append("\", \"jndi_context\":\"").append(this.jndiContext).append("\", \"jndi_name\":\"").append(this.jndiDatasource);
         buffer.append("\", \"description\":\"").append(this.description);
+        buffer.append("\", \"pool_settings\":\"").append(this.poolSettings == null ? "" : this.poolSettings);
 //        buffer.append("\", \"description\":\"").append(this.description).append("\", \"internal\":\"");
 //        if (this.type.equalsIgnoreCase("jdbc") && this.jdbcDriver.equalsIgnoreCase(""))
 //            buffer.append("true");
@@ -245,7 +431,8 @@ public class Connection {
         sb.append("name=").append(name).append("&type=").append(type)
                 .append("&jdbcDriver=").append(jdbcDriver).append("&jdbcUrl=").append(jdbcUrl).append("&jdbcUserName=").append(jdbcUserName).append("&jdbcPassword=").append(jdbcPassword)
                 .append("&jndiDatasource=").append(jndiDatasource).append("&jndiContext=").append(jndiContext)
-                .append("&description=").append(description).append("&id=").append(name);
+                .append("&description=").append(description).append("&poolSettings=").append(poolSettings == null ? "" : poolSettings)
+                .append("&id=").append(name);
         return sb.toString();
     }
 
@@ -256,7 +443,7 @@ public class Connection {
         sb.append(name).append(", ").append(type).append(", ")
                 .append(jdbcDriver).append(", ").append(jdbcUrl).append(", ").append(jdbcUserName).append(", ").append(jdbcPassword).append(", ")
                 .append(jndiDatasource).append(", ").append(jndiContext).append(", ")
-                .append(description);
+                .append(description).append(", ").append(poolSettings);
         return sb.toString();
     }
 
@@ -0,0 +1,149 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import com.innavace.ds.Convert;
+import com.innavace.ds.metrics.ConnectionMetrics;
+import com.innavace.ds.metrics.Metrics;
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * A bounded set of threads for the database work of one connection.  Requests hand their work to the executor of the
+ * connection they use so a slow database only ties up its own threads; once they and the queue are full more work for
+ * that connection is rejected right away instead of holding another request thread.  The queue is kept short (a quarter
+ * of the threads by default) because every queued task holds a request thread that waits for it; one slow database can
+ * then hold threads + queue request threads at most, well under what the connector has.  The caller waits for the
+ * result up to a deadline (30 seconds by default) and gives up on the work after that.  Work that sat in the queue
+ * longer than the queue timeout is rejected when its turn comes; by then the caller is better off trying again than
+ * waiting behind everyone else.
+ * Sized by the executorThreads, executorQueue, executorTimeout (ms; 0 waits as long as it takes), executorQueueTimeout
+ * (ms; 0 never expires) and executorRetryAfter (seconds we tell rejected clients to wait) pool settings.
+ */
+public class ConnectionExecutor {
+    public static Logger log = Logger.getLogger(ConnectionExecutor.class);
+    public static final int DEFAULT_THREADS = 32;
+    public static final long DEFAULT_TIMEOUT = 30000;
+    public static final long DEFAULT_QUEUE_TIMEOUT = 1000;
+    public static final int DEFAULT_RETRY_AFTER = 1;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final long timeout;
+    private final long queueTimeout;
+    private final int retryAfter;
+    private final ConnectionMetrics metrics;
+
+    public ConnectionExecutor(final String name, Map<String, String> settings) {
+        this.name = name;
+        int threads = Convert.toInt(settings.get("executorthreads"));
+        if (threads <= 0)
+            threads = DEFAULT_THREADS;
+        int queue = Convert.toInt(settings.get("executorqueue"));
+        if (queue <= 0)
+            queue = Math.max(1, threads / 4);
+        this.timeout = settings.containsKey("executortimeout") ? Math.max(0, Convert.toLng(settings.get("executortimeout"))) : DEFAULT_TIMEOUT;
+        this.queueTimeout = settings.containsKey("executorqueuetimeout") ? Math.max(0, Convert.toLng(settings.get("executorqueuetimeout"))) : DEFAULT_QUEUE_TIMEOUT;
+        int retryAfter = Convert.toInt(settings.get("executorretryafter"));
+        this.retryAfter = retryAfter > 0 ? retryAfter : DEFAULT_RETRY_AFTER;
+        this.metrics = Metrics.getConnectionMetrics(name);
+        final AtomicInteger count = new AtomicInteger();
+        // no caller runs policy here; running overflow on the request thread is exactly what we are trying to avoid
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ds-" + name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        log.info("connection [" + name + "] executor started with [" + threads + "] threads and [" + queue + "] queued");
+    }
+
+    // the deadline in milliseconds callers should wait for work on this connection; 0 if they should wait it out
+    public long getTimeout() {
+        return timeout;
+    }
+
+    // seconds a rejected client should wait before trying again
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    // runs the task on one of our threads and waits up to timeout ms (0 waits until done) for its result; throws
+    //  RejectedExecutionException if we are full or it queued too long and TimeoutException if the deadline passed
+    //  (the task keeps running)
+    public <T> T execute(Callable<T> task, long timeout) throws Exception {
+        Future<T> future = submit(task);
+        try {
+            if (timeout > 0)
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            return future.get();
+        }
+        catch (ExecutionException eex) {
+            // callers want what the task threw, not the wrapper
+            Throwable cause = eex.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw eex;
+        }
+    }
+
+    // queues the task without waiting for it; throws RejectedExecutionException if we are full.  a task that sat in the
+    //  queue longer than the queue timeout fails with a RejectedExecutionException when its turn comes
+    public <T> Future<T> submit(final Callable<T> task) {
+        final long queued = System.nanoTime();
+        try {
+            return executor.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    long waited = System.nanoTime() - queued;
+                    metrics.queueWait.observe(waited);
+                    if (queueTimeout > 0 && waited > queueTimeout * 1000000L) {
+                        metrics.rejections.increment();
+                        throw new RejectedExecutionException("waited " + (waited / 1000000L) + "ms in the [" + name + "] queue");
+                    }
+                    return task.call();
+                }
+            });
+        }
+        catch (RejectedExecutionException reex) {
+            metrics.rejections.increment();
+            throw reex;
+        }
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    // stops taking work; anything already running or queued finishes for the requests waiting on it
+    public void shutdown() {
+        executor.shutdown();
+        log.debug("connection [" + name + "] executor shut down...");
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.innavace.ds.config;
 
+import com.innavace.ds.metrics.ConnectionMetrics;
+import com.innavace.ds.metrics.Metrics;
 import com.innavace.ds.wrapper.OrderedParameterWrapper;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Logger;
@@ -23,6 +25,7 @@ import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import java.io.IOException;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -36,9 +39,35 @@ import java.util.*;
 public class ConnectionHandler
 {
     public static Logger log = Logger.getLogger(ConnectionHandler.class);
-    public static Map<String, Connection> connectionsMap = new LinkedHashMap<String, Connection>();
+    static final String CONNECTIONS_INSERT_SQL = "INSERT INTO CONNECTIONS (NAME, TYPE, JDBC_DRIVER, JDBC_URL, JDBC_USERNAME, JDBC_PASSWORD, JNDI_NAME, JNDI_CONTEXT, DESCRIPTION, POOL_SETTINGS) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    static final String CONNECTIONS_UPDATE_SQL = "UPDATE CONNECTIONS SET NAME=?, TYPE=?, " +
+            "JDBC_DRIVER=?, JDBC_URL=?, JDBC_USERNAME=?, JDBC_PASSWORD=?, " +
+            "JNDI_NAME=?, JNDI_CONTEXT=?, DESCRIPTION=?, POOL_SETTINGS=? WHERE NAME=?";
+    // the connections currently being served; readers never lock, init() and reload() build a new map and swap it in
+    private static volatile Map<String, Connection> connectionsMap = Collections.emptyMap();
 
     public static synchronized void init() throws SQLException{
+        // NOTE: we only initialize once; if we have any existing values we bail
+        if (connectionsMap.size() > 0) {
+            log.warn("ATTEMPTED TO INITIALIZE CONNECTION HANDLER BUT WAS ALREADY INITIALIZED; SKIPPING INITIALIZATION!");
+            return;
+        }
+        connectionsMap = Collections.unmodifiableMap(loadConnections());
+        log.info("connections initialized");
+    }
+
+    // builds a new set of connections and swaps it in before closing the old pools so requests never see an empty map
+    public static synchronized void reload() throws SQLException {
+        Map<String, Connection> previous = connectionsMap;
+        connectionsMap = Collections.unmodifiableMap(loadConnections());
+        for (Connection connection : previous.values())
+            connection.close();
+        log.info("connections reloaded");
+    }
+
+    private static Map<String, Connection> loadConnections() throws SQLException {
+        Map<String, Connection> connectionsMap = new LinkedHashMap<String, Connection>();
         // we need to figure out our default system connection
         // RULES:
         //      1) system properties to fill initial "default" connection object
@@ -46,11 +75,6 @@ public class ConnectionHandler
         //      3) use pre-defined defaults to attempt to load the connection
         //      4) load all other user defined connections from connections table using system default connection
 
-        // NOTE: we only initialize once; if we have any existing values we bail
-        if (connectionsMap.size() > 0) {
-            log.warn("ATTEMPTED TO INITIALIZE CONNECTION HANDLER BUT WAS ALREADY INITIALIZED; SKIPPING INITIALIZATION!");
-            return;
-        }
         // attempt to build the default connection via system properties; if found and valid add to the map
         Connection connection = getSystemVariableConnection();
         if (connection != null && connection.isValid()) {
@@ -81,8 +105,14 @@ public class ConnectionHandler
                     con = connection.getConnection();
                     stmt = con.createStatement();
                     rs = stmt.executeQuery(sql);
+                    // tables created by older versions may be missing columns we added later
+                    if (!ConfigurationHandler.getColumnNames(rs).contains("POOL_SETTINGS")) {
+                        rs.close();
+                        upgradeSchema(stmt);
+                        rs = stmt.executeQuery(sql);
+                    }
                     if (rs != null && rs.next()) {
-                        Connection externalConnection = new Connection(rs.getString("NAME"), rs.getString("TYPE"), rs.getString("JNDI_CONTEXT"), rs.getString("JNDI_NAME"), rs.getString("JDBC_DRIVER"), rs.getString("JDBC_URL"), rs.getString("JDBC_USERNAME"), rs.getString("JDBC_PASSWORD"), rs.getString("DESCRIPTION"));
+                        Connection externalConnection = toConnection(rs);
                         if (externalConnection.isValid()) {
                             log.info("USING EXTERNAL DEFAULT CONNECTION: " + externalConnection);
                             connectionsMap.put("default", externalConnection);
@@ -132,7 +162,7 @@ public class ConnectionHandler
                     stmt = con.createStatement();
                     rs = stmt.executeQuery(sql);
                     while (rs != null && rs.next()) {
-                        Connection externalConnection = new Connection(rs.getString("NAME"), rs.getString("TYPE"), rs.getString("JNDI_CONTEXT"), rs.getString("JNDI_NAME"), rs.getString("JDBC_DRIVER"), rs.getString("JDBC_URL"), rs.getString("JDBC_USERNAME"), rs.getString("JDBC_PASSWORD"), rs.getString("DESCRIPTION"));
+                        Connection externalConnection = toConnection(rs);
                         connectionsMap.put(externalConnection.name, externalConnection);
                         if (!externalConnection.isValid())
                             log.warn("EXTERNAL CONNECTION [ " + externalConnection + "] WAS FOUND BUT WAS NOT VALID...");
@@ -160,12 +190,10 @@ public class ConnectionHandler
                 throw new SQLException("Connection was attempted but invalid:\n" + connection);
         }
 
-        Set<Map.Entry<String, Connection>> entries = ConnectionHandler.connectionsMap.entrySet();
+        Set<Map.Entry<String, Connection>> entries = connectionsMap.entrySet();
         for (Map.Entry<String, Connection> entry : entries)
             log.debug("    " + entry.getKey() + "\t: " + entry.getValue());
-
-        log.info("connections initialized");
-
+        return connectionsMap;
     }
 
     public static synchronized boolean test(String name, String type, String jndiContext, String jndiDatasource, String jdbcDriver,
@@ -175,13 +203,15 @@ public class ConnectionHandler
         return connection.test();
     }
 
-    public static synchronized Connection get(String connectionCode) {
+    public static Collection<Connection> getConnections() { return connectionsMap.values(); }
+
+    public static Connection get(String connectionCode) {
         if (connectionCode == null)
             return null;
         return connectionsMap.get(connectionCode);
     }
 
-    public static synchronized  boolean hasConnection(String connectionCode) {
+    public static boolean hasConnection(String connectionCode) {
         return connectionCode != null && connectionsMap.get(connectionCode) != null;
     }
 
@@ -202,7 +232,7 @@ public class ConnectionHandler
         return true;
     }
 
-    public static synchronized java.sql.Connection getConnection(String connectionCode) throws NamingException, SQLException {
+    public static java.sql.Connection getConnection(String connectionCode) throws NamingException, SQLException {
         if (connectionCode == null || connectionCode.length() == 0)
             throw new SQLException("Unable to update connection because no code was passed.");
         log.debug("getting connection: " + connectionCode);
@@ -212,10 +242,20 @@ public class ConnectionHandler
         log.debug("got connection: "  + connection);
         if (!connection.isValid())
             throw new SQLException("Connection [" + connectionCode + "] is not valid; update or refresh the connection to re-validate and enable it.");
-        return connection.getConnection();
+        ConnectionMetrics metrics = Metrics.getConnectionMetrics(connectionCode);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            java.sql.Connection con = connection.getConnection();
+            failed = (con == null);
+            return con;
+        }
+        finally {
+            metrics.record(System.nanoTime() - start, failed);
+        }
     }
 
-    public static synchronized String toJSON() {
+    public static String toJSON() {
         StringBuilder buffer = new StringBuilder(400);
         Collection<Connection> connections = connectionsMap.values();
         buffer.append("[");
@@ -228,13 +268,13 @@ public class ConnectionHandler
         return buffer.toString();
     }
 
-    public static synchronized String toJSON(String key) {
+    public static String toJSON(String key) {
         Connection connection = connectionsMap.get(key);
         if (connection == null)
             return "{}";
         return connection.toJSON();
     }
-    public static synchronized String toXML() {
+    public static String toXML() {
         StringBuilder buffer = new StringBuilder(400);
         Collection<Connection> connections = connectionsMap.values();
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
@@ -244,7 +284,7 @@ public class ConnectionHandler
         buffer.append("</connections>");
         return buffer.toString();
     }
-    public static synchronized String toXML(String nameFilter) {
+    public static String toXML(String nameFilter) {
         StringBuilder buffer = new StringBuilder(400);
         Collection<Connection> connections = connectionsMap.values();
         buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
@@ -256,16 +296,46 @@ public class ConnectionHandler
         return buffer.toString();
     }
     // name filter is pretty simple.  for an element return true if the path matches; false otherwise
-    private static synchronized boolean filterName(Connection connection, String nameFilter) {
+    private static boolean filterName(Connection connection, String nameFilter) {
         return nameFilter == null || nameFilter.length() == 0 || connection.name.startsWith(nameFilter);
     }
     public static synchronized void createSchema(Statement stmt) throws SQLException {
 
-        String sql = "CREATE TABLE connections (NAME VARCHAR(50) PRIMARY KEY, TYPE VARCHAR(4) NOT NULL DEFAULT 'jdbc', JNDI_NAME VARCHAR(50), JNDI_CONTEXT VARCHAR(50), JDBC_DRIVER VARCHAR(150), JDBC_URL VARCHAR(255), JDBC_USERNAME VARCHAR(50), JDBC_PASSWORD VARCHAR(50), DESCRIPTION VARCHAR(255) NOT NULL)";
+        String sql = "CREATE TABLE connections (NAME VARCHAR(50) PRIMARY KEY, TYPE VARCHAR(4) NOT NULL DEFAULT 'jdbc', JNDI_NAME VARCHAR(50), JNDI_CONTEXT VARCHAR(50), JDBC_DRIVER VARCHAR(150), JDBC_URL VARCHAR(255), JDBC_USERNAME VARCHAR(50), JDBC_PASSWORD VARCHAR(50), DESCRIPTION VARCHAR(255) NOT NULL, POOL_SETTINGS VARCHAR(1000))";
         stmt.execute(sql);
         log.info("SYSTEM TABLE [CONNECTIONS] CREATED");
     }
 
+    // adds the columns introduced since the connections table was first created and points the /connections
+    // statements at them so they can be saved from the console and uploads
+    public static synchronized void upgradeSchema(Statement stmt) {
+        String sql = "ALTER TABLE CONNECTIONS ADD POOL_SETTINGS VARCHAR(1000)";
+        try {stmt.execute(sql);log.info("SYSTEM TABLE [CONNECTIONS] UPGRADED: ADDED [POOL_SETTINGS]");}
+        catch (SQLException sqlex) {log.fatal("Exception attempting to add pool settings to connections table: ", sqlex);}
+        PreparedStatement ps = null;
+        try {
+            ps = stmt.getConnection().prepareStatement("UPDATE CONFIGURATIONS SET INSERT_STATEMENT=?, UPDATE_STATEMENT=? WHERE PATH='/connections'");
+            ps.setString(1, CONNECTIONS_INSERT_SQL);
+            ps.setString(2, CONNECTIONS_UPDATE_SQL);
+            ps.executeUpdate();
+            log.info("SYSTEM [CONNECTIONS] STATEMENTS UPGRADED");
+        }
+        // the configurations table may not exist yet; it will be created with the current statements
+        catch (SQLException sqlex) {log.warn("Unable to upgrade /connections statements: " + sqlex);}
+        finally {
+            if (ps != null) {
+                try {ps.close();}
+                catch (Exception ex) {log.warn("Exception attempting to close non null statement in connection handler.upgradeSchema(): " + ex);}
+            }
+        }
+    }
+
+    private static Connection toConnection(ResultSet rs) throws SQLException {
+        Connection connection = new Connection(rs.getString("NAME"), rs.getString("TYPE"), rs.getString("JNDI_CONTEXT"), rs.getString("JNDI_NAME"), rs.getString("JDBC_DRIVER"), rs.getString("JDBC_URL"), rs.getString("JDBC_USERNAME"), rs.getString("JDBC_PASSWORD"), rs.getString("DESCRIPTION"));
+        connection.poolSettings = rs.getString("POOL_SETTINGS");
+        return connection;
+    }
+
     private static synchronized String getJndiVariable(String jndiLocation) {
         String value = null;
         if (jndiLocation == null || jndiLocation.length()  == 0)
@@ -300,6 +370,7 @@ public class ConnectionHandler
         connection.jdbcUserName = System.getProperty("dsc_jdbc_user_name");
         connection.jdbcPassword = System.getProperty("dsc_jdbc_password");
         connection.description = System.getProperty("dsc_description");
+        connection.poolSettings = System.getProperty("dsc_pool_settings");
 
         return connection;
     }
@@ -318,19 +389,20 @@ public class ConnectionHandler
         connection.jdbcUserName = getJndiVariable("dsc_jdbc_user_name");
         connection.jdbcPassword = getJndiVariable("dsc_jdbc_password");
         connection.description = getJndiVariable("dsc_description");
+        connection.poolSettings = getJndiVariable("dsc_pool_settings");
 
         return connection;
     }
 
-    public static void destroy()
+    public static synchronized void destroy()
     {
         // allow proper cleanup for all loaded connections in the map (may be pooled)
         Collection<Connection> connections = connectionsMap.values();
+        connectionsMap = Collections.emptyMap();
         for (Connection connection : connections) {
             connection.close();
             connection = null;
         }
-        connectionsMap.clear();
         log.debug("connection map cleared...");
     }
 
@@ -0,0 +1,188 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import com.innavace.ds.Convert;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Paging for a query built from the reserved parameters:
+ *  $limit  - max rows to return
+ *  $offset - rows to skip (offset paging)
+ *  $after  - return rows with a key greater than this value (keyset paging; needs the key setting on the configuration
+ *            and a query that is unordered or ordered by the key ascending)
+ *  $count  - true to also return the total number of rows the query matches
+ * The query is rewritten for the connection's dialect (h2, mysql, sql server) and the results are wrapped as
+ *  {"rows":[...], "next":"...", "total":n}.  Pass next back as $after (keyset) or $offset to get the next page; it is null
+ *  on the last page.  Configurations with a key setting use keyset paging unless $offset is passed or the query is
+ *  ordered by something else; we never change the order the configuration asked for.
+ */
+public class PageRequest {
+    public static final String LIMIT = "$limit";
+    public static final String OFFSET = "$offset";
+    public static final String AFTER = "$after";
+    public static final String COUNT = "$count";
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[A-Za-z0-9_.]+");
+    // a trailing order by that isn't inside parentheses; dropped where we wrap the query or re-order it ourselves
+    private static final Pattern ORDER_BY_PATTERN = Pattern.compile("(?is)\\s+order\\s+by\\s+([^)]*)$");
+
+    public final int limit;
+    public final int offset;
+    public final String after;
+    public final boolean count;
+    // key column for keyset paging; null for offset paging
+    public final String key;
+    // the column label the key will have in the result set (no table prefix)
+    private final String keyLabel;
+
+    // rows to read past and the max rows to ask the driver for when the dialect can't limit in sql; set by toSql()
+    int skip = 0;
+    int maxRows = 0;
+    // filled in while the rows are written
+    boolean hasMore = false;
+    String lastKey;
+
+    private PageRequest(int limit, int offset, String after, boolean count, String key) {
+        this.limit = limit;
+        this.offset = offset;
+        this.after = after;
+        this.count = count;
+        this.key = key;
+        this.keyLabel = key == null ? null : key.substring(key.lastIndexOf('.') + 1);
+    }
+
+    // returns null if the request has no paging parameters; sql is the configuration's query
+    public static PageRequest from(Configuration configuration, String sql, Map<String, String[]> parameterMap) throws SQLException {
+        String limit = getParameter(parameterMap, LIMIT);
+        String offset = getParameter(parameterMap, OFFSET);
+        String after = getParameter(parameterMap, AFTER);
+        String count = getParameter(parameterMap, COUNT);
+        if (limit == null && offset == null && after == null && count == null)
+            return null;
+        String key = configuration.getSetting("key");
+        if (key != null && !KEY_PATTERN.matcher(key).matches())
+            throw new SQLException("[" + configuration.path + "] key setting [" + key + "] must be a column name.");
+        if (after != null && key == null)
+            throw new SQLException("[" + configuration.path + "] requires a key setting to page with " + AFTER + ".");
+        // an explicit offset means offset paging even if we could use the key
+        if (offset != null && after == null)
+            key = null;
+        // keyset paging re-orders by the key; only do it when that is the order the query already has
+        if (key != null && !isOrderedBy(sql, key)) {
+            if (after != null)
+                throw new SQLException("[" + configuration.path + "] is not ordered by its key [" + key + "]; page it with " + OFFSET + " instead of " + AFTER + ".");
+            key = null;
+        }
+        int limitValue = Convert.toInt(limit);
+        int offsetValue = Convert.toInt(offset);
+        if (limitValue < 0 || offsetValue < 0)
+            throw new SQLException(LIMIT + " and " + OFFSET + " must not be negative.");
+        return new PageRequest(limitValue, key == null ? offsetValue : 0, after, Convert.toBool(count), key);
+    }
+
+    private static String getParameter(Map<String, String[]> parameterMap, String name) {
+        String[] values = parameterMap.get(name);
+        if (values == null || values.length == 0 || values[0] == null || values[0].length() == 0)
+            return null;
+        return values[0];
+    }
+
+    // true if the query has no order by of its own or orders by just the key ascending
+    private static boolean isOrderedBy(String sql, String key) {
+        Matcher matcher = ORDER_BY_PATTERN.matcher(trim(sql));
+        if (!matcher.find())
+            return true;
+        String orderBy = matcher.group(1).trim().replaceFirst("(?i)\\s+asc$", "");
+        String label = key.substring(key.lastIndexOf('.') + 1);
+        return orderBy.equalsIgnoreCase(key) || orderBy.substring(orderBy.lastIndexOf('.') + 1).equalsIgnoreCase(label);
+    }
+
+    public boolean isKeyset() {
+        return key != null;
+    }
+
+    // rewrites the statement sql to return the page; we always ask for one extra row to know if there is another page
+    //  NOTE: for keyset paging the key value is bound after the statement's own parameters
+    public String toSql(String sql, String dialect) {
+        sql = trim(sql);
+        boolean limitInSql = dialect.equals(Connection.DIALECT_H2) || dialect.equals(Connection.DIALECT_MYSQL);
+        int fetch = limit > 0 ? limit + 1 : 0;
+        if (isKeyset()) {
+            StringBuilder buffer = new StringBuilder(sql.length() + 100);
+            buffer.append("SELECT * FROM (").append(stripOrderBy(sql)).append(") ds_page");
+            if (after != null)
+                buffer.append(" WHERE ").append(keyLabel).append(" > ?");
+            buffer.append(" ORDER BY ").append(keyLabel);
+            if (limitInSql && fetch > 0)
+                buffer.append(" LIMIT ").append(fetch);
+            else
+                maxRows = fetch;
+            return buffer.toString();
+        }
+        if (limitInSql && fetch > 0)
+            return sql + " LIMIT " + fetch + " OFFSET " + offset;
+        // sql server 2012 pages with offset / fetch but only after an order by; an unordered query gets a no-op one
+        //  (rows come back in no particular order either way, same as limit / offset without one)
+        if (dialect.equals(Connection.DIALECT_SQLSERVER_2012) && (fetch > 0 || offset > 0)) {
+            StringBuilder buffer = new StringBuilder(sql.length() + 60).append(sql);
+            if (!ORDER_BY_PATTERN.matcher(sql).find())
+                buffer.append(" ORDER BY (SELECT NULL)");
+            buffer.append(" OFFSET ").append(offset).append(" ROWS");
+            if (fetch > 0)
+                buffer.append(" FETCH NEXT ").append(fetch).append(" ROWS ONLY");
+            return buffer.toString();
+        }
+        // older sql server can't offset at all and other databases we don't know the syntax for so let the driver cap
+        //  the rows (jtds uses set rowcount) and read past the offset ourselves; deep pages still send the skipped rows
+        skip = offset;
+        maxRows = fetch > 0 ? offset + fetch : 0;
+        return sql;
+    }
+
+    public String toCountSql(String sql) {
+        return "SELECT COUNT(*) FROM (" + stripOrderBy(trim(sql)) + ") ds_count";
+    }
+
+    // called for each row written so we can hand back the key of the last one
+    void setLastKey(java.sql.ResultSet rs) throws SQLException {
+        if (keyLabel != null)
+            lastKey = rs.getString(keyLabel);
+    }
+
+    public String getNext() {
+        if (!hasMore)
+            return null;
+        return isKeyset() ? lastKey : String.valueOf(offset + limit);
+    }
+
+    private static String trim(String sql) {
+        sql = sql.trim();
+        while (sql.endsWith(";"))
+            sql = sql.substring(0, sql.length() - 1).trim();
+        return sql;
+    }
+
+    private static String stripOrderBy(String sql) {
+        return ORDER_BY_PATTERN.matcher(sql).replaceFirst("");
+    }
+}
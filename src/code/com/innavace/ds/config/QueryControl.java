@@ -0,0 +1,79 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import org.apache.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Tracks the statement one request is running so it can be cancelled from another thread (the request thread giving
+ * up on it or the writer finding the client gone) and carries the client's deadline, which clamps the query timeout.
+ */
+public class QueryControl {
+    public static Logger log = Logger.getLogger(QueryControl.class);
+
+    // milliseconds the client is willing to wait; 0 if it didn't say
+    private final long deadline;
+    private Statement statement;
+    private boolean cancelled;
+    // nanos spent executing statements (up to their first row); what the adaptive limit judges the database by
+    private long executeTime;
+
+    public QueryControl(long deadline) {
+        this.deadline = Math.max(0, deadline);
+    }
+
+    // the query timeout in seconds to use given the configured one (0 for none); the client deadline lowers it
+    public int getQueryTimeout(int configured) {
+        if (deadline == 0)
+            return configured;
+        // jdbc only takes whole seconds; round up so we never cut the client short
+        int client = (int) Math.min(Integer.MAX_VALUE, (deadline + 999) / 1000);
+        return configured > 0 ? Math.min(configured, client) : client;
+    }
+
+    public synchronized void addExecuteTime(long nanos) {
+        executeTime += nanos;
+    }
+
+    public synchronized long getExecuteTime() {
+        return executeTime;
+    }
+
+    // makes the statement the one cancel() stops; fails if we were already cancelled so no new work starts
+    public synchronized void register(Statement statement) throws SQLException {
+        if (cancelled)
+            throw new SQLException("request was cancelled");
+        this.statement = statement;
+    }
+
+    // asks the driver to stop the running statement (if any); safe to call from any thread and more than once
+    public void cancel() {
+        Statement running;
+        synchronized (this) {
+            cancelled = true;
+            running = statement;
+        }
+        if (running == null)
+            return;
+        try {running.cancel();}
+        catch (SQLException sqlex) {log.debug("statement could not be cancelled (it may have just finished): " + sqlex);}
+    }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Holds serialized query results for configurations with a cacheTtl setting.  Entries are keyed by path, action and
+ * the values that would be bound to the statement and expire after the configuration's ttl.  The cache is bounded by
+ * total bytes; the least recently used entries are evicted first.  Lookups don't lock; changes to the entries do.
+ * Each path has a generation that invalidate moves on so a query that started before a write can't put its (stale)
+ * result back after the write dropped the path.
+ */
+public class ResultCache {
+    public static Logger log = Logger.getLogger(ResultCache.class);
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>(64);
+    private static final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+    private static volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private static final AtomicLong bytes = new AtomicLong();
+    // ticks on every hit so eviction can find the least recently used entries without ordering the map
+    private static final AtomicLong clock = new AtomicLong();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+        final String path;
+        final byte[] value;
+        final long expires;
+        volatile long used;
+
+        Entry(String path, byte[] value, long expires) {
+            this.path = path;
+            this.value = value;
+            this.expires = expires;
+            this.used = clock.incrementAndGet();
+        }
+    }
+
+    // builds the key from the response type, the values in the order they will be bound (parameter names don't change
+    //  the results) and the reserved parameters that do ($limit etc.)
+    public static String key(Configuration configuration, String action, String responseType, StatementPlan plan, Map<String, String[]> parameterMap) {
+        StringBuilder buffer = new StringBuilder(100);
+        buffer.append(configuration.path).append('\u0000').append(action.toLowerCase());
+        buffer.append('\u0000').append(responseType);
+        for (String value : plan.getValues(parameterMap))
+            buffer.append('\u0000').append(value);
+        for (Map.Entry<String, String[]> entry : parameterMap.entrySet()) {
+            if (StatementPlan.isReserved(entry.getKey()))
+                buffer.append('\u0000').append(entry.getKey()).append('=').append(entry.getValue()[0]);
+        }
+        return buffer.toString();
+    }
+
+    public static byte[] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.used = clock.incrementAndGet();
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    // the generation of the path's results; read it before running the query and hand it to put
+    public static long generation(String path) {
+        return getGeneration(path).get();
+    }
+
+    private static AtomicLong getGeneration(String path) {
+        AtomicLong generation = generations.get(path);
+        if (generation == null) {
+            AtomicLong created = new AtomicLong();
+            generation = generations.putIfAbsent(path, created);
+            if (generation == null)
+                generation = created;
+        }
+        return generation;
+    }
+
+    // drops the value if the path was invalidated since the generation was read; its query may have seen the old data
+    public static synchronized void put(String key, String path, long generation, byte[] value, int ttlSeconds) {
+        if (value == null || ttlSeconds <= 0 || value.length > getMaxEntryBytes())
+            return;
+        if (generation != generation(path))
+            return;
+        Entry previous = entries.put(key, new Entry(path, value, System.currentTimeMillis() + (ttlSeconds * 1000L)));
+        if (previous != null)
+            bytes.addAndGet(-previous.value.length);
+        if (bytes.addAndGet(value.length) > maxBytes)
+            evict();
+    }
+
+    // evicts from the least recently used end until we fit in our budget again
+    private static void evict() {
+        List<Map.Entry<String, Entry>> eldest = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+        Collections.sort(eldest, new Comparator<Map.Entry<String, Entry>>() {
+            public int compare(Map.Entry<String, Entry> first, Map.Entry<String, Entry> second) {
+                long used = first.getValue().used, other = second.getValue().used;
+                return used < other ? -1 : (used == other ? 0 : 1);
+            }
+        });
+        for (int i=0; i<eldest.size() && bytes.get() > maxBytes; i++) {
+            if (remove(eldest.get(i).getKey(), eldest.get(i).getValue()))
+                evictions.incrementAndGet();
+        }
+    }
+
+    private static boolean remove(String key, Entry entry) {
+        if (!entries.remove(key, entry))
+            return false;
+        bytes.addAndGet(-entry.value.length);
+        return true;
+    }
+
+    // drops every entry for a path; used when a write on the configuration changed the data
+    public static synchronized void invalidate(String path) {
+        getGeneration(path).incrementAndGet();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().path.equals(path))
+                remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public static synchronized void clear() {
+        for (AtomicLong generation : generations.values())
+            generation.incrementAndGet();
+        for (Map.Entry<String, Entry> entry : entries.entrySet())
+            remove(entry.getKey(), entry.getValue());
+        log.debug("result cache cleared...");
+    }
+
+    public static synchronized void setMaxBytes(long max) {
+        if (max <= 0)
+            return;
+        maxBytes = max;
+        log.info("result cache limited to [" + maxBytes + "] bytes");
+    }
+
+    // a single result may only take a fraction of the cache so one big export can't flush everything else
+    public static long getMaxEntryBytes() {
+        return maxBytes / 8;
+    }
+
+    public static String toJSON() {
+        StringBuilder buffer = new StringBuilder(200);
+        buffer.append("{\"entries\":").append(entries.size());
+        buffer.append(", \"bytes\":").append(bytes.get());
+        buffer.append(", \"max_bytes\":").append(maxBytes);
+        buffer.append(", \"hits\":").append(hits.get());
+        buffer.append(", \"misses\":").append(misses.get());
+        buffer.append(", \"evictions\":").append(evictions.get());
+        buffer.append("}");
+        return buffer.toString();
+    }
+}
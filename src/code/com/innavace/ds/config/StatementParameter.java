@@ -0,0 +1,107 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import com.innavace.ds.Convert;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Typed binder for one ? in a statement.  Built once from the |options| that follow the ? so binding a request only
+ * has to switch on the type instead of re-splitting and comparing the option strings.
+ */
+public class StatementParameter {
+    public final char type;
+    public final int sqlType;
+    public final boolean in;
+    public final boolean out;
+
+    public StatementParameter(String option) {
+        // options are colon separated; the one char option is the type, in / out are the callable directions
+        char optType = 's';
+        boolean hasIn = false;
+        boolean hasOut = false;
+        if (option != null && option.length() > 0) {
+            for (String opt : option.split(":")) {
+                opt = opt.trim();
+                if (opt.length() == 1)
+                    optType = Character.toLowerCase(opt.charAt(0));
+                else if (opt.equalsIgnoreCase("in"))
+                    hasIn = true;
+                else if (opt.equalsIgnoreCase("out"))
+                    hasOut = true;
+            }
+        }
+        this.type = optType;
+        this.sqlType = toSqlType(optType);
+        this.out = hasOut;
+        // a plain parameter is always an input; an out parameter is only an input if it says so
+        this.in = !hasOut || hasIn;
+    }
+
+    private static int toSqlType(char type) {
+        switch (type) {
+            case 'i':
+            case 'l': return Types.INTEGER;
+            case 'f': return Types.FLOAT;
+            case 'd': return Types.DOUBLE;
+            case 't': return Types.TIMESTAMP;
+            case 'a': return Types.ARRAY;
+            default: return Types.VARCHAR;
+        }
+    }
+
+    public void bind(PreparedStatement ps, int index, String value) throws SQLException {
+        switch (type) {
+            case 'l': ps.setLong(index, Convert.toLng(value)); break;
+            case 'i': ps.setInt(index, Convert.toInt(value)); break;
+            case 'f': ps.setFloat(index, Convert.toFlt(value)); break;
+            case 'd': ps.setDouble(index, Convert.toDbl(value)); break;
+            case 't':
+                Date date = Convert.toDate(value);
+                if (date == null)
+                    ps.setTimestamp(index, null);
+                else
+                    ps.setTimestamp(index, new Timestamp(date.getTime()));
+                break;
+            default: ps.setString(index, value);
+        }
+    }
+
+    public void register(CallableStatement cs, int index) throws SQLException {
+        cs.registerOutParameter(index, sqlType);
+    }
+
+    // appends the out value as a json member according to the data type
+    public void appendOut(CallableStatement cs, int index, String key, StringBuilder buffer) throws SQLException {
+        buffer.append("\"").append(key).append("\":");
+        switch (type) {
+            case 'l': buffer.append(cs.getLong(index)); break;
+            case 'i': buffer.append(cs.getInt(index)); break;
+            case 'f': buffer.append(cs.getFloat(index)); break;
+            case 'd': buffer.append(cs.getDouble(index)); break;
+            case 't': buffer.append(cs.getTimestamp(index)); break;
+            default: buffer.append("\"").append(cs.getString(index)).append("\"");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.config;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * The parsed form of one configuration statement: the sql with the |options| stripped, whether it is a callable
+ * statement and a binder for each ?.  Plans are compiled when configurations are loaded so requests only bind values.
+ */
+public class StatementPlan {
+    public final String originalSql;
+    public final String sql;
+    public final boolean callable;
+    public final StatementParameter[] parameters;
+
+    private StatementPlan(String originalSql, String sql, boolean callable, StatementParameter[] parameters) {
+        this.originalSql = originalSql;
+        this.sql = sql;
+        this.callable = callable;
+        this.parameters = parameters;
+    }
+
+    // returns null if there is no sql to compile
+    public static StatementPlan compile(Configuration configuration, String originalSql) {
+        if (originalSql == null || originalSql.length() == 0)
+            return null;
+        List<String> options = configuration.getOptions(originalSql);
+        StatementParameter[] parameters = new StatementParameter[options.size()];
+        for (int i=0; i<parameters.length; i++)
+            parameters[i] = new StatementParameter(options.get(i));
+        // if we match a pattern then we are a callable statement
+        boolean callable = originalSql.matches("\\s*\\{.*call.*\\}");
+        return new StatementPlan(originalSql, configuration.stripOptions(originalSql), callable, parameters);
+    }
+
+    // reserved parameters ($action, $limit etc.) control the request and are never bound to the statement
+    public static boolean isReserved(String name) {
+        return name != null && name.startsWith("$");
+    }
+
+    // returns the values that bind to the ?'s in order (reserved parameters skipped); missing values are blanks
+    public String[] getValues(Map<String, String[]> parameterMap) {
+        String[] values = new String[parameters.length];
+        Iterator<Map.Entry<String, String[]>> entries = parameterMap.entrySet().iterator();
+        Map.Entry<String, String[]> entry;
+        for (int i=0; i<values.length; i++) {
+            entry = null;
+            while (entries.hasNext() && isReserved((entry = entries.next()).getKey()))
+                entry = null;
+            values[i] = entry == null ? "" : entry.getValue()[0];
+        }
+        return values;
+    }
+
+    // binds the parameters in the order they were received to the ?'s in order; missing values are bound as blanks
+    // NOTE: if a parameter is sent 2x then we only pick the first
+    //      ex: a=1,b=2,a=3,c=3 : ?1=[a->1] ?2=[b->2] ?3=[c->3] ?4=""
+    public void bind(PreparedStatement ps, Map<String, String[]> parameterMap) throws SQLException {
+        String[] values = getValues(parameterMap);
+        String value;
+        for (int i=0; i<parameters.length; i++) {
+            value = values[i];
+            StatementParameter parameter = parameters[i];
+            if (callable && parameter.out)
+                parameter.register((CallableStatement) ps, i + 1);
+            if (!callable || parameter.in)
+                parameter.bind(ps, i + 1, value);
+        }
+    }
+
+    // returns the out parameters as a json object keyed by the passed parameter names (made up names if not passed)
+    public String getOutParameterResults(CallableStatement cs, Map<String, String[]> parameterMap) throws SQLException {
+        Iterator<String> keys = parameterMap.keySet().iterator();
+        StringBuilder buffer = new StringBuilder(100);
+        buffer.append("{");
+        buffer.append("\"cs\":true");
+        String key;
+        for (int i=0; i<parameters.length; i++) {
+            key = null;
+            while (keys.hasNext() && isReserved(key = keys.next()))
+                key = null;
+            if (key == null)
+                key = "p" + i;
+            if (parameters[i].out) {
+                buffer.append(", ");
+                parameters[i].appendOut(cs, i + 1, key, buffer);
+            }
+        }
+        buffer.append("}");
+        return buffer.toString();
+    }
+}
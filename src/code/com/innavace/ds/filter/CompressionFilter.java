@@ -0,0 +1,311 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.filter;
+
+import com.innavace.ds.Convert;
+import com.innavace.ds.config.Configuration;
+import com.innavace.ds.config.ConfigurationHandler;
+import com.innavace.ds.writer.CompressionOutputStream;
+import org.apache.log4j.Logger;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Compresses /_data and /_system responses with gzip or deflate when the client accepts it.  The first threshold
+ * bytes are held back; bodies that end before that are sent as is and anything bigger (or anything flushed, like
+ * ndjson rows) is compressed as it is written, so nothing is ever buffered beyond the threshold.
+ * init-params:
+ *  threshold - bytes below which we don't bother compressing (default 1024)
+ *  level     - default deflate level 1-9 (default 6)
+ * A configuration can set its own level with a compression=<0-9> setting; 0 turns compression off for it.
+ * A compressed body is a different representation so any ETag gets a -gzip / -deflate suffix.
+ */
+public class CompressionFilter implements Filter {
+    public static Logger log = Logger.getLogger(CompressionFilter.class);
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_LEVEL = 6;
+
+    private int threshold = DEFAULT_THRESHOLD;
+    private int level = DEFAULT_LEVEL;
+
+    public void init(FilterConfig config) throws ServletException {
+        if (config.getInitParameter("threshold") != null)
+            threshold = Convert.toInt(config.getInitParameter("threshold"));
+        if (config.getInitParameter("level") != null)
+            level = Math.max(0, Math.min(9, Convert.toInt(config.getInitParameter("level"))));
+        log.info("compressing responses over [" + threshold + "] bytes at level [" + level + "]");
+    }
+    public void destroy() { }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)
+                || request.getAttribute(CompressionFilter.class.getName()) != null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        // the response varies by accept-encoding whether or not we end up compressing this one
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        String encoding = getEncoding(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || httpRequest.getMethod().equalsIgnoreCase("HEAD")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        // forwards from the data filter come back through here; only wrap once
+        request.setAttribute(CompressionFilter.class.getName(), encoding);
+        CompressionResponse compressionResponse = new CompressionResponse(httpRequest, httpResponse, encoding);
+        try {
+            chain.doFilter(request, compressionResponse);
+        }
+        finally {
+            compressionResponse.finish();
+        }
+    }
+
+    // returns gzip or deflate if the client accepts one of them (gzip preferred) or null
+    static String getEncoding(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        boolean deflate = false;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String name = parts[0].trim().toLowerCase();
+            // q=0 means not acceptable
+            boolean acceptable = true;
+            for (int i=1; i<parts.length; i++) {
+                String parameter = parts[i].trim().toLowerCase();
+                if (parameter.startsWith("q=") && Convert.toDbl(parameter.substring(2)) <= 0)
+                    acceptable = false;
+            }
+            if (!acceptable)
+                continue;
+            if (name.equals("gzip") || name.equals("x-gzip"))
+                return "gzip";
+            if (name.equals("deflate"))
+                deflate = true;
+        }
+        return deflate ? "deflate" : null;
+    }
+
+    // holds the first threshold bytes then decides between compressing and passing through
+    private class CompressionResponse extends HttpServletResponseWrapper {
+        private final HttpServletRequest request;
+        private final String encoding;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream(threshold);
+        private OutputStream out;
+        private ServletOutputStream stream;
+        private boolean streamUsed = false;
+        private PrintWriter writer;
+        private int contentLength = -1;
+        private String etag;
+        private boolean finished = false;
+
+        CompressionResponse(HttpServletRequest request, HttpServletResponse response, String encoding) {
+            super(response);
+            this.request = request;
+            this.encoding = encoding;
+        }
+
+        // the level for the configuration being served (0 for off) or our default
+        private int getLevel() {
+            Object path = request.getAttribute("_DS_PATH");
+            Configuration configuration = path == null ? null : ConfigurationHandler.getConfiguration(path.toString());
+            String setting = configuration == null ? null : configuration.getSetting("compression");
+            if (setting == null || setting.length() == 0)
+                return level;
+            return Math.max(0, Math.min(9, Convert.toInt(setting)));
+        }
+
+        // called once we know the body is big enough (or being streamed); starts compressing or passes through
+        private void start(boolean compress) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) getResponse();
+            int responseLevel = compress ? getLevel() : 0;
+            // leave it alone if something upstream already encoded the body
+            if (responseLevel > 0 && !response.containsHeader("Content-Encoding")) {
+                response.setHeader("Content-Encoding", encoding);
+                if (etag != null)
+                    response.setHeader("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding + "\"");
+                out = new CompressionOutputStream(response.getOutputStream(), encoding.equals("gzip"), responseLevel);
+            }
+            else {
+                if (contentLength >= 0)
+                    response.setContentLength(contentLength);
+                if (etag != null)
+                    response.setHeader("ETag", etag);
+                out = response.getOutputStream();
+            }
+            pending.writeTo(out);
+            pending = null;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (finished)
+                throw new IOException("response has already been written");
+            if (out == null) {
+                if (pending.size() + len <= threshold) {
+                    pending.write(b, off, len);
+                    return;
+                }
+                start(true);
+            }
+            out.write(b, off, len);
+        }
+
+        private void flushStream() throws IOException {
+            // a flush means the caller is streaming; commit to compressing so the data goes out now
+            if (out == null)
+                start(pending.size() > 0);
+            out.flush();
+        }
+
+        // writes anything still held back and ends the compressed stream; called when the chain returns
+        void finish() throws IOException {
+            if (finished)
+                return;
+            if (writer != null)
+                writer.flush();
+            finished = true;
+            if (out == null) {
+                // we never got to the threshold; send the body as is
+                if (etag != null)
+                    ((HttpServletResponse) getResponse()).setHeader("ETag", etag);
+                if (pending.size() > 0 && !getResponse().isCommitted())
+                    getResponse().setContentLength(pending.size());
+                if (pending.size() > 0)
+                    getResponse().getOutputStream().write(pending.toByteArray());
+                pending = null;
+            }
+            else if (out instanceof CompressionOutputStream)
+                ((CompressionOutputStream) out).finish();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null)
+                throw new IllegalStateException("getWriter() has already been called on this response");
+            streamUsed = true;
+            return getStream();
+        }
+
+        private ServletOutputStream getStream() {
+            if (stream == null) {
+                stream = new ServletOutputStream() {
+                    private final byte[] single = new byte[1];
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        single[0] = (byte) b;
+                        CompressionResponse.this.write(single, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        CompressionResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        flushStream();
+                    }
+                };
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (streamUsed)
+                    throw new IllegalStateException("getOutputStream() has already been called on this response");
+                String charset = getCharacterEncoding();
+                writer = new PrintWriter(new OutputStreamWriter(getStream(), charset == null ? "ISO-8859-1" : charset));
+            }
+            return writer;
+        }
+
+        // the length of the compressed body isn't known; only pass it on if we don't compress
+        @Override
+        public void setContentLength(int length) {
+            contentLength = length;
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (name.equalsIgnoreCase("Content-Length"))
+                contentLength = Convert.toInt(value);
+            // held until we know if the body is compressed
+            else if (name.equalsIgnoreCase("ETag") && out == null && value != null && value.endsWith("\""))
+                etag = value;
+            else
+                super.setHeader(name, value);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushStream();
+            super.flushBuffer();
+        }
+
+        // errors replace the body; drop anything we were holding
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            discard();
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            discard();
+            super.sendError(status);
+        }
+
+        @Override
+        public void reset() {
+            if (out != null && getResponse().isCommitted())
+                throw new IllegalStateException("response has already been committed");
+            super.reset();
+            if (pending != null)
+                pending.reset();
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (pending != null)
+                pending.reset();
+        }
+
+        private void discard() {
+            if (out == null && pending != null) {
+                pending.reset();
+                finished = true;
+            }
+        }
+    }
+}
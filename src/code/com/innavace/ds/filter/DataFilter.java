@@ -52,6 +52,7 @@ public class DataFilter implements Filter {
                 request.getRequestDispatcher("/_data" + dsPath).forward(request, response);
             else {
                 // if we are handling our data then set the attribute before passing through to servlet and make sure to wrapper the request
+                //  NOTE: wrapping is cheap; the wrapper doesn't read the body or parse anything until parameters are asked for
                 if (dsPath.startsWith("/_data")) {
                     // NOTE: we need to strip out the data prefix since it has been forwarded to us with it but the table doesn't have it
                     request.setAttribute("_DS_PATH", dsPath.substring("/_data".length()));
@@ -62,7 +62,7 @@ public class ApplicationListener implements ServletContextListener {
         try {
             log.info("caching initialized handler data...");
             log.info("CONNECTIONS");
-            Collection<Connection> connections = ConnectionHandler.connectionsMap.values();
+            Collection<Connection> connections = ConnectionHandler.getConnections();
             for (Connection connection : connections)
                 log.info("    " + connection);
             log.debug("loaded connections to memory...");
@@ -0,0 +1,37 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.metrics;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Counters for borrowing connections from one named connection and for the work queued on its executor; the pool
+ * sizes and queue depth themselves are read from the pool / executor when the metrics are written
+ */
+public class ConnectionMetrics {
+    public final StripedCounter borrows = new StripedCounter();
+    public final StripedCounter errors = new StripedCounter();
+    public final Histogram latency = new Histogram();
+    public final StripedCounter rejections = new StripedCounter();
+    public final Histogram queueWait = new Histogram();
+
+    public void record(long nanos, boolean failed) {
+        borrows.increment();
+        if (failed)
+            errors.increment();
+        latency.observe(nanos);
+    }
+}
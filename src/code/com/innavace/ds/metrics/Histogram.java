@@ -0,0 +1,64 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.metrics;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Latency histogram with fixed buckets (in seconds as prometheus expects).  Each bucket is a striped counter holding
+ * only its own observations; they are added up into cumulative buckets when written out.
+ */
+public class Histogram {
+    // upper bounds in seconds; anything slower lands in +Inf
+    public static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+    private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+    static {
+        for (int i=0; i<BUCKETS.length; i++)
+            BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1000000000L);
+    }
+
+    private final StripedCounter[] counts = new StripedCounter[BUCKETS.length + 1];
+    private final StripedCounter sumNanos = new StripedCounter();
+
+    public Histogram() {
+        for (int i=0; i<counts.length; i++)
+            counts[i] = new StripedCounter();
+    }
+
+    public void observe(long nanos) {
+        int i = 0;
+        while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i])
+            i++;
+        counts[i].increment();
+        sumNanos.add(nanos);
+    }
+
+    // writes the _bucket, _sum and _count lines for this histogram; labels are the already formatted label pairs
+    public void toPrometheus(String name, String labels, StringBuilder buffer) {
+        long cumulative = 0;
+        for (int i=0; i<counts.length; i++) {
+            cumulative += counts[i].get();
+            buffer.append(name).append("_bucket{").append(labels).append(",le=\"");
+            if (i < BUCKETS.length)
+                buffer.append(BUCKETS[i]);
+            else
+                buffer.append("+Inf");
+            buffer.append("\"} ").append(cumulative).append('\n');
+        }
+        buffer.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.get() / 1000000000.0).append('\n');
+        buffer.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
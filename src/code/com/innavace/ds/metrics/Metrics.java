@@ -0,0 +1,182 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.metrics;
+
+import com.innavace.ds.config.AdaptiveLimit;
+import com.innavace.ds.config.Connection;
+import com.innavace.ds.config.ConnectionExecutor;
+import com.innavace.ds.config.ConnectionHandler;
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Holds the request and connection metrics by path / connection name and writes them out in the prometheus text
+ * format for /_system/metrics.  Metrics are kept by name so they survive configuration and connection reloads.
+ */
+public class Metrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final ConcurrentMap<String, RequestMetrics> requestMetrics = new ConcurrentHashMap<String, RequestMetrics>();
+    private static final ConcurrentMap<String, ConnectionMetrics> connectionMetrics = new ConcurrentHashMap<String, ConnectionMetrics>();
+
+    public static RequestMetrics getRequestMetrics(String path) {
+        if (path == null)
+            path = "";
+        RequestMetrics metrics = requestMetrics.get(path);
+        if (metrics == null) {
+            RequestMetrics created = new RequestMetrics();
+            metrics = requestMetrics.putIfAbsent(path, created);
+            if (metrics == null)
+                metrics = created;
+        }
+        return metrics;
+    }
+
+    public static ConnectionMetrics getConnectionMetrics(String name) {
+        ConnectionMetrics metrics = connectionMetrics.get(name);
+        if (metrics == null) {
+            ConnectionMetrics created = new ConnectionMetrics();
+            metrics = connectionMetrics.putIfAbsent(name, created);
+            if (metrics == null)
+                metrics = created;
+        }
+        return metrics;
+    }
+
+    public static String toPrometheus() {
+        StringBuilder buffer = new StringBuilder(4096);
+        // pool gauges for every current connection that has a pool built; the borrow counters for every name we've seen
+        Map<String, ConnectionPool> pools = new TreeMap<String, ConnectionPool>();
+        for (Connection connection : ConnectionHandler.getConnections()) {
+            ConnectionPool pool = connection.getPool();
+            if (pool != null)
+                pools.put(connection.name, pool);
+        }
+        header(buffer, "ds_pool_active", "gauge", "connections currently borrowed from the pool");
+        for (Map.Entry<String, ConnectionPool> entry : pools.entrySet())
+            sample(buffer, "ds_pool_active", connectionLabel(entry.getKey()), entry.getValue().getActive());
+        header(buffer, "ds_pool_idle", "gauge", "idle connections in the pool");
+        for (Map.Entry<String, ConnectionPool> entry : pools.entrySet())
+            sample(buffer, "ds_pool_idle", connectionLabel(entry.getKey()), entry.getValue().getIdle());
+        header(buffer, "ds_pool_waiting", "gauge", "threads waiting to borrow a connection");
+        for (Map.Entry<String, ConnectionPool> entry : pools.entrySet())
+            sample(buffer, "ds_pool_waiting", connectionLabel(entry.getKey()), entry.getValue().getWaitCount());
+        header(buffer, "ds_pool_max_active", "gauge", "configured maximum pool size");
+        for (Map.Entry<String, ConnectionPool> entry : pools.entrySet())
+            sample(buffer, "ds_pool_max_active", connectionLabel(entry.getKey()), entry.getValue().getPoolProperties().getMaxActive());
+
+        Map<String, AdaptiveLimit> limits = new TreeMap<String, AdaptiveLimit>();
+        for (Connection connection : ConnectionHandler.getConnections()) {
+            AdaptiveLimit limit = connection.findLimit();
+            if (limit != null)
+                limits.put(connection.name, limit);
+        }
+        header(buffer, "ds_limit", "gauge", "statements currently allowed in flight by the adaptive limit");
+        for (Map.Entry<String, AdaptiveLimit> entry : limits.entrySet())
+            sample(buffer, "ds_limit", connectionLabel(entry.getKey()), entry.getValue().getLimit());
+        header(buffer, "ds_limit_in_flight", "gauge", "statements in flight under the adaptive limit");
+        for (Map.Entry<String, AdaptiveLimit> entry : limits.entrySet())
+            sample(buffer, "ds_limit_in_flight", connectionLabel(entry.getKey()), entry.getValue().getInFlight());
+
+        Map<String, ConnectionExecutor> executors = new TreeMap<String, ConnectionExecutor>();
+        for (Connection connection : ConnectionHandler.getConnections()) {
+            ConnectionExecutor executor = connection.findExecutor();
+            if (executor != null)
+                executors.put(connection.name, executor);
+        }
+        header(buffer, "ds_executor_active", "gauge", "requests running on the connection executor");
+        for (Map.Entry<String, ConnectionExecutor> entry : executors.entrySet())
+            sample(buffer, "ds_executor_active", connectionLabel(entry.getKey()), entry.getValue().getActive());
+        header(buffer, "ds_executor_queued", "gauge", "requests waiting for a connection executor thread");
+        for (Map.Entry<String, ConnectionExecutor> entry : executors.entrySet())
+            sample(buffer, "ds_executor_queued", connectionLabel(entry.getKey()), entry.getValue().getQueued());
+
+        Map<String, ConnectionMetrics> connections = new TreeMap<String, ConnectionMetrics>(connectionMetrics);
+        header(buffer, "ds_pool_borrows_total", "counter", "connections borrowed");
+        for (Map.Entry<String, ConnectionMetrics> entry : connections.entrySet())
+            sample(buffer, "ds_pool_borrows_total", connectionLabel(entry.getKey()), entry.getValue().borrows.get());
+        header(buffer, "ds_pool_borrow_errors_total", "counter", "failed attempts to borrow a connection");
+        for (Map.Entry<String, ConnectionMetrics> entry : connections.entrySet())
+            sample(buffer, "ds_pool_borrow_errors_total", connectionLabel(entry.getKey()), entry.getValue().errors.get());
+        header(buffer, "ds_pool_borrow_seconds", "histogram", "time taken to borrow a connection");
+        for (Map.Entry<String, ConnectionMetrics> entry : connections.entrySet())
+            entry.getValue().latency.toPrometheus("ds_pool_borrow_seconds", connectionLabel(entry.getKey()), buffer);
+        header(buffer, "ds_executor_rejections_total", "counter", "requests turned away because the executor or limit was full or they queued too long");
+        for (Map.Entry<String, ConnectionMetrics> entry : connections.entrySet())
+            sample(buffer, "ds_executor_rejections_total", connectionLabel(entry.getKey()), entry.getValue().rejections.get());
+        header(buffer, "ds_executor_queue_seconds", "histogram", "time requests waited for a connection executor thread or room under the limit");
+        for (Map.Entry<String, ConnectionMetrics> entry : connections.entrySet())
+            entry.getValue().queueWait.toPrometheus("ds_executor_queue_seconds", connectionLabel(entry.getKey()), buffer);
+
+        Map<String, RequestMetrics> paths = new TreeMap<String, RequestMetrics>(requestMetrics);
+        header(buffer, "ds_requests_total", "counter", "requests executed by configuration path");
+        for (Map.Entry<String, RequestMetrics> entry : paths.entrySet())
+            sample(buffer, "ds_requests_total", pathLabel(entry.getKey()), entry.getValue().requests.get());
+        header(buffer, "ds_request_errors_total", "counter", "requests that failed by configuration path");
+        for (Map.Entry<String, RequestMetrics> entry : paths.entrySet())
+            sample(buffer, "ds_request_errors_total", pathLabel(entry.getKey()), entry.getValue().errors.get());
+        header(buffer, "ds_rows_total", "counter", "rows written by configuration path (not counted for cached responses)");
+        for (Map.Entry<String, RequestMetrics> entry : paths.entrySet())
+            sample(buffer, "ds_rows_total", pathLabel(entry.getKey()), entry.getValue().rows.get());
+        header(buffer, "ds_response_bytes_total", "counter", "response bytes written by configuration path");
+        for (Map.Entry<String, RequestMetrics> entry : paths.entrySet())
+            sample(buffer, "ds_response_bytes_total", pathLabel(entry.getKey()), entry.getValue().bytes.get());
+        header(buffer, "ds_request_seconds", "histogram", "time taken to execute and write a request by configuration path");
+        for (Map.Entry<String, RequestMetrics> entry : paths.entrySet())
+            entry.getValue().latency.toPrometheus("ds_request_seconds", pathLabel(entry.getKey()), buffer);
+        return buffer.toString();
+    }
+
+    private static void header(StringBuilder buffer, String name, String type, String help) {
+        buffer.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        buffer.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder buffer, String name, String labels, long value) {
+        buffer.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static String connectionLabel(String name) {
+        return "connection=\"" + escape(name) + "\"";
+    }
+
+    private static String pathLabel(String path) {
+        return "path=\"" + escape(path) + "\"";
+    }
+
+    // label values may not contain raw backslashes, quotes or new lines
+    private static String escape(String value) {
+        if (value == null)
+            return "";
+        StringBuilder buffer = new StringBuilder(value.length() + 8);
+        for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"')
+                buffer.append('\\').append(c);
+            else if (c == '\n')
+                buffer.append("\\n");
+            else
+                buffer.append(c);
+        }
+        return buffer.toString();
+    }
+}
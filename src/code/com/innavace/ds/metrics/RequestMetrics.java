@@ -0,0 +1,40 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.metrics;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Counters for the requests made against one configuration path
+ */
+public class RequestMetrics {
+    public final StripedCounter requests = new StripedCounter();
+    public final StripedCounter errors = new StripedCounter();
+    public final StripedCounter rows = new StripedCounter();
+    public final StripedCounter bytes = new StripedCounter();
+    public final Histogram latency = new Histogram();
+
+    public void record(long nanos, int rowCount, long byteCount, boolean failed) {
+        requests.increment();
+        if (failed)
+            errors.increment();
+        if (rowCount > 0)
+            rows.add(rowCount);
+        if (byteCount > 0)
+            bytes.add(byteCount);
+        latency.observe(nanos);
+    }
+}
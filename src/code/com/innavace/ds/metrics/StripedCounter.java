@@ -0,0 +1,54 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Counter for the request path.  Threads add to one of several cells picked from the thread id so concurrent requests
+ * rarely hit the same cache line; reading sums the cells.  Reads are only approximate while writes are in flight.
+ */
+public class StripedCounter {
+    // must be a power of 2
+    private static final int STRIPES = 16;
+    // spread the cells a cache line (8 longs) apart so neighbouring stripes don't share one
+    private static final int PAD = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long value) {
+        cells.addAndGet(index(), value);
+    }
+
+    public long get() {
+        long sum = 0;
+        for (int i=0; i<STRIPES; i++)
+            sum += cells.get(i * PAD);
+        return sum;
+    }
+
+    private static int index() {
+        // fibonacci hash of the thread id; the top bits pick the stripe
+        int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return (hash >>> 28) * PAD;
+    }
+}
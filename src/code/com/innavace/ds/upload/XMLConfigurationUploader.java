@@ -68,6 +68,8 @@ public class XMLConfigurationUploader extends DefaultHandler {
             configuration.deleteStatement = characters.toString().trim();
         else if (elementName.equalsIgnoreCase("keywords"))
             configuration.keywords = characters.toString().trim();
+        else if (elementName.equalsIgnoreCase("settings"))
+            configuration.settings = characters.toString().trim();
         else if (elementName.equalsIgnoreCase("configuration")) {
             // using the current systems configurations save the data
             // for now just print it out
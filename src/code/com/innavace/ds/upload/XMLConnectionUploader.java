@@ -70,6 +70,8 @@ public class XMLConnectionUploader extends DefaultHandler {
             connection.jdbcPassword = characters.toString().trim();
         else if (elementName.equalsIgnoreCase("description"))
             connection.description = characters.toString().trim();
+        else if (elementName.equalsIgnoreCase("poolSettings"))
+            connection.poolSettings = characters.toString().trim();
         else if (elementName.equalsIgnoreCase("connection")) {
             // using the current systems configurations save the data
             // for now just print it out
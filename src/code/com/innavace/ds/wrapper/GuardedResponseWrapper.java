@@ -0,0 +1,152 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.wrapper;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * The response handed to work running on a connection executor.  If the request thread stops waiting for the work it
+ * abandons the response; from then on anything the work tries to write or set fails instead of touching a response
+ * the container may already be reusing for another request.
+ */
+public class GuardedResponseWrapper extends HttpServletResponseWrapper {
+    private boolean abandoned;
+    private ServletOutputStream out;
+
+    public GuardedResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    // called by the request thread when it gives up; waits for any write in progress to finish first
+    public synchronized void abandon() {
+        abandoned = true;
+    }
+
+    public synchronized boolean isAbandoned() {
+        return abandoned;
+    }
+
+    private void check() throws IOException {
+        if (abandoned)
+            throw new IOException("response was abandoned; the request timed out");
+    }
+
+    @Override
+    public synchronized ServletOutputStream getOutputStream() throws IOException {
+        check();
+        if (out == null) {
+            final ServletOutputStream target = super.getOutputStream();
+            out = new ServletOutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    synchronized (GuardedResponseWrapper.this) {
+                        check();
+                        target.write(b);
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    synchronized (GuardedResponseWrapper.this) {
+                        check();
+                        target.write(b, off, len);
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    synchronized (GuardedResponseWrapper.this) {
+                        check();
+                        target.flush();
+                    }
+                }
+            };
+        }
+        return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        throw new IllegalStateException("work on a connection executor must write to the output stream");
+    }
+
+    @Override
+    public synchronized void flushBuffer() throws IOException {
+        check();
+        super.flushBuffer();
+    }
+
+    @Override
+    public synchronized void sendError(int sc, String msg) throws IOException {
+        check();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public synchronized void sendError(int sc) throws IOException {
+        check();
+        super.sendError(sc);
+    }
+
+    // header changes after we were abandoned are simply dropped; the write that follows them fails anyway
+    @Override
+    public synchronized void setStatus(int sc) {
+        if (!abandoned)
+            super.setStatus(sc);
+    }
+
+    @Override
+    public synchronized void setHeader(String name, String value) {
+        if (!abandoned)
+            super.setHeader(name, value);
+    }
+
+    @Override
+    public synchronized void addHeader(String name, String value) {
+        if (!abandoned)
+            super.addHeader(name, value);
+    }
+
+    @Override
+    public synchronized void setDateHeader(String name, long date) {
+        if (!abandoned)
+            super.setDateHeader(name, date);
+    }
+
+    @Override
+    public synchronized void setIntHeader(String name, int value) {
+        if (!abandoned)
+            super.setIntHeader(name, value);
+    }
+
+    @Override
+    public synchronized void setContentType(String type) {
+        if (!abandoned)
+            super.setContentType(type);
+    }
+
+    @Override
+    public synchronized void setContentLength(int len) {
+        if (!abandoned)
+            super.setContentLength(len);
+    }
+}
@@ -0,0 +1,229 @@
+/* Copyright (c) 2013, Stephen Stacha
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that you give me credit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL STEPHEN STACHA,
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.innavace.ds.wrapper;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Small pull parser for request bodies.  Reads straight from the reader so a large array can be handled one element at
+ * a time instead of being read into a string first.
+ *  - strings and numbers are returned as strings (numbers as written), true/false as strings and null as null
+ *  - objects are returned as ordered maps and arrays as lists
+ * NOTE: the caller decides how much to read; use beginArray() / hasNext() / endArray() to walk a top level array
+ */
+public class JSONReader {
+    private Reader reader;
+    // one character of look ahead; -2 means nothing is buffered
+    private int peeked = -2;
+    // true until the first element of the array or object we just opened; every element after it needs a comma
+    private boolean first;
+    // most characters we will read (0 for no limit) and how many we have
+    private final long limit;
+    private long count;
+
+    public JSONReader(Reader reader) {
+        this(reader, 0);
+    }
+
+    // fails with an IOException once more than limit characters have been read
+    public JSONReader(Reader reader, long limit) {
+        this.reader = reader;
+        this.limit = limit;
+    }
+
+    // returns the next non whitespace character without consuming it or -1 at the end of the input
+    public int peek() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\t' || c == '\n' || c == '\r')
+            c = read();
+        peeked = c;
+        return c;
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+        first = true;
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        first = false;
+    }
+
+    // true if the current array or object has another element; consumes the separating comma
+    public boolean hasNext() throws IOException {
+        int c = peek();
+        if (c == ']' || c == '}' || c == -1)
+            return false;
+        if (first)
+            first = false;
+        else if (c == ',') {
+            read();
+            peek();
+        }
+        else
+            throw new IOException("Expected [,] but found [" + (char) c + "] in JSON input");
+        return true;
+    }
+
+    public Object readValue() throws IOException {
+        int c = peek();
+        switch (c) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': read(); return readString();
+            case 't': readLiteral("true"); return "true";
+            case 'f': readLiteral("false"); return "false";
+            case 'n': readLiteral("null"); return null;
+            case -1: throw new IOException("Unexpected end of JSON input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                    return readNumber();
+                throw new IOException("Unexpected character [" + (char) c + "] in JSON input");
+        }
+    }
+
+    public Map<String, Object> readObject() throws IOException {
+        expect('{');
+        first = true;
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        while (hasNext()) {
+            expect('"');
+            String key = readString();
+            expect(':');
+            map.put(key, readValue());
+        }
+        expect('}');
+        first = false;
+        return map;
+    }
+
+    public List<Object> readArray() throws IOException {
+        beginArray();
+        List<Object> list = new ArrayList<Object>();
+        while (hasNext())
+            list.add(readValue());
+        endArray();
+        return list;
+    }
+
+    // reads an object of simple values into an ordered parameter map like the one built from a form post
+    public LinkedHashMap<String, String[]> readParameters() throws IOException {
+        return toParameters(readObject());
+    }
+
+    // reads a whole array of parameter objects
+    public List<LinkedHashMap<String, String[]>> readParameterArray() throws IOException {
+        List<LinkedHashMap<String, String[]>> rows = new ArrayList<LinkedHashMap<String, String[]>>();
+        beginArray();
+        while (hasNext())
+            rows.add(readParameters());
+        endArray();
+        return rows;
+    }
+
+    // json object keys are always strings; takes any map so callers holding an untyped value needn't cast
+    public static LinkedHashMap<String, String[]> toParameters(Map<?, ?> object) throws IOException {
+        LinkedHashMap<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+        for (Map.Entry<?, ?> entry : object.entrySet()) {
+            Object value = entry.getValue();
+            if (value != null && !(value instanceof String))
+                throw new IOException("Parameter [" + entry.getKey() + "] must be a simple value; objects and arrays are not supported.");
+            parameters.put(String.valueOf(entry.getKey()), new String[]{(String) value});
+        }
+        return parameters;
+    }
+
+    private String readString() throws IOException {
+        StringBuilder buffer = new StringBuilder(32);
+        int c;
+        while ((c = read()) != '"') {
+            if (c == -1)
+                throw new IOException("Unterminated string in JSON input");
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b': buffer.append('\b'); break;
+                    case 'f': buffer.append('\f'); break;
+                    case 'n': buffer.append('\n'); break;
+                    case 'r': buffer.append('\r'); break;
+                    case 't': buffer.append('\t'); break;
+                    case 'u':
+                        int code = 0;
+                        for (int i=0; i<4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit == -1)
+                                throw new IOException("Invalid unicode escape in JSON input");
+                            code = (code << 4) | digit;
+                        }
+                        buffer.append((char) code);
+                        break;
+                    case -1: throw new IOException("Unterminated string in JSON input");
+                    // \" \\ and \/ are the character itself
+                    default: buffer.append((char) c);
+                }
+            }
+            else
+                buffer.append((char) c);
+        }
+        return buffer.toString();
+    }
+
+    private String readNumber() throws IOException {
+        StringBuilder buffer = new StringBuilder(16);
+        int c = read();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+            buffer.append((char) c);
+            c = read();
+        }
+        peeked = c;
+        return buffer.toString();
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i=0; i<literal.length(); i++) {
+            if (read() != literal.charAt(i))
+                throw new IOException("Invalid literal in JSON input; expected [" + literal + "]");
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected)
+            throw new IOException("Expected [" + expected + "] but found [" + (c == -1 ? "end of input" : String.valueOf((char) c)) + "] in JSON input");
+        read();
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        if (limit > 0 && ++count > limit)
+            throw new IOException("JSON input is larger than the [" + limit + "] characters allowed");
+        return reader.read();
+    }
+}
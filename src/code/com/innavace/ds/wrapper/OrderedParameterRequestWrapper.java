@@ -30,63 +30,121 @@ import java.util.*;
  * Date: Mar 5, 2013
  * I am attempting to ensure the parameters are ordered so I can access them later in the correct order
  *  since I intend to do parameter replacements 1-n.
+ * Url encoded and json object bodies are parsed straight from the input stream; only multipart bodies (which we parse
+ *  as a string) are read into memory first.  A json array body is left unread for whoever handles it (batches).
+ * Nothing is read or parsed until the parameters are first asked for and a request without a body never touches the
+ *  input stream at all.  If the servlet reads the body itself before asking, only the query string is parsed.
  */
 public class OrderedParameterRequestWrapper extends HttpServletRequestWrapper {
+    // only set for multipart bodies; everything else is parsed as it streams in
     private byte[] raw;
-    private LinkedHashMap<String, String[]> parameterMap = new LinkedHashMap<String, String[]>();
+    // the body as we hand it out; positioned after anything we parsed (null until someone needs it)
+    private InputStream body;
+    // null until the parameters are first asked for
+    private LinkedHashMap<String, String[]> parameterMap;
 
-    private static final int MAX_SIZE = 1024 * 1024 * 4;  // 1024B = 1KB * 1024KB = 1MB
+    public static final int MAX_SIZE = 1024 * 1024 * 4;  // 1024B = 1KB * 1024KB = 1MB
     public static Logger log = Logger.getLogger(OrderedParameterRequestWrapper.class);
 
     public OrderedParameterRequestWrapper(HttpServletRequest request) {
         super(request);
+    }
 
+    // builds the parameter map from the query string and (if it is still ours to read) the body
+    private LinkedHashMap<String, String[]> getParameters() {
+        if (parameterMap != null)
+            return parameterMap;
+        String qs = getQueryString();
         try {
-            // read the request body and save it as a byte array
-            InputStream in = super.getInputStream();
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte buffer[] = new byte[1024];
-            int total = 0;
-            for(int s; ((s=in.read(buffer)) != -1 && total < MAX_SIZE); )
-            {
-              bos.write(buffer, 0, s);
-              total += s;
-              if (total > MAX_SIZE)
-                  log.fatal("Input stream exceeded max size [" + MAX_SIZE + "]bytes.  Terminating...");
+            String contentType = getHeader("content-type");
+            if (log.isDebugEnabled()) {
+                log.debug("");
+                log.debug("headers");
+                log.debug("-------");
+                // Print all headers
+                List<String> headers = Collections.list(getHeaderNames());
+                for (String header : headers) {
+                    log.debug(header + " - " + getHeader(header));
+                }
+                log.debug("qs: " + qs);
+                log.debug("content type header: " + contentType);
+            }
+            if (body != null || !hasBody()) {
+                // the servlet already took the body (or there isn't one); all we have is the query string
+                parameterMap = new OrderedParameterWrapper(null, qs, null).getParameterMap();
+                return parameterMap;
             }
-            bos.flush();
-            raw = bos.toByteArray();
-            // next parse the strings and put into parameter map in order
-            String body = toString();
-            String qs = request.getQueryString();
-            log.debug("body: " + body);
-            log.debug("");
-            log.debug("headers");
-            log.debug("-------");
-            // Print all headers
-            List<String> headers = Collections.list(request.getHeaderNames());
-            for (String header : headers) {
-                log.debug(header + " - " + request.getHeader(header));
+            body = new BufferedInputStream(super.getInputStream());
+            if (contentType != null && contentType.contains("multipart/form-data;")) {
+                // the multipart parser works on the whole body as a string
+                raw = readBody();
+                String bodyString = toString();
+                log.debug("parameter body value: " + bodyString);
+                parameterMap = new OrderedParameterWrapper(contentType, qs, bodyString).getParameterMap();
             }
-            log.debug("qs: " + qs);
-            log.debug("parameter body value: " + body);
-            log.debug("content type header: " + request.getHeader("content-type"));
-            OrderedParameterWrapper parameterWrapper = new OrderedParameterWrapper(request.getHeader("content-type"), qs, body);
-            parameterMap = parameterWrapper.getParameterMap();
+            else {
+                OrderedParameterWrapper parameterWrapper = new OrderedParameterWrapper(contentType, qs, null);
+                if (contentType != null && contentType.contains("application/json")) {
+                    // objects are parameters; anything else (a batch array) is left for the servlet to read
+                    if (peek() == '{')
+                        parameterWrapper.parseJSONEncodedParameters(new InputStreamReader(new LimitedInputStream(body), getEncoding()));
+                }
+                else
+                    parameterWrapper.parseUrlEncodedParameters(new LimitedInputStream(body));
+                parameterMap = parameterWrapper.getParameterMap();
+            }
+        }
+        catch (IOException ioex) {
+            // a body we can't parse is skipped; the query string parameters still apply
+            log.fatal("Exception in request wrapper; using the query string parameters only: " + ioex);
+            parameterMap = new OrderedParameterWrapper(null, qs, null).getParameterMap();
         }
-        catch (IOException ioex) {log.fatal("Exception in request wrapper: " + ioex);}
+        return parameterMap;
+    }
+
+    // true if the client sent (or is sending) a body
+    private boolean hasBody() {
+        return getContentLength() > 0 || getHeader("transfer-encoding") != null;
+    }
+
+    // reads the rest of the body (up to MAX_SIZE) into a byte array
+    private byte[] readBody() throws IOException {
+        InputStream in = new LimitedInputStream(body);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.min(MAX_SIZE, Math.max(getContentLength(), 1024)));
+        byte buffer[] = new byte[8192];
+        for (int s; (s = in.read(buffer)) != -1; )
+            bos.write(buffer, 0, s);
+        return bos.toByteArray();
+    }
+
+    // returns the first non whitespace byte of the body without consuming it or -1 if the body is empty
+    private int peek() throws IOException {
+        int c;
+        do {
+            body.mark(1);
+            c = body.read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        body.reset();
+        return c;
+    }
+
+    private String getEncoding() {
+        String enc = getCharacterEncoding();
+        return enc == null ? "UTF-8" : enc;
     }
 
     @Override
     public ServletInputStream getInputStream() throws IOException {
-        return new ServletInputStreamImpl(new ByteArrayInputStream(raw));
+        if (raw != null)
+            return new ServletInputStreamImpl(new ByteArrayInputStream(raw));
+        if (body == null)
+            body = new BufferedInputStream(super.getInputStream());
+        return new ServletInputStreamImpl(body);
     }
 
     @Override
     public BufferedReader getReader() throws IOException {
-        String enc = getCharacterEncoding();
-        if(enc == null) enc = "UTF-8";
-        return new BufferedReader(new InputStreamReader(getInputStream(), enc));
+        return new BufferedReader(new InputStreamReader(getInputStream(), getEncoding()));
     }
 
     private class ServletInputStreamImpl extends ServletInputStream {
@@ -101,6 +159,10 @@ public class OrderedParameterRequestWrapper extends HttpServletRequestWrapper {
             return is.read();
         }
 
+        public int read(byte[] b, int off, int len) throws IOException {
+            return is.read(b, off, len);
+        }
+
         public boolean markSupported() {
             return false;
         }
@@ -114,16 +176,57 @@ public class OrderedParameterRequestWrapper extends HttpServletRequestWrapper {
         }
     }
 
-    // allows user to get the raw bytes from the input stream if needed for evaluation or to save a image etc.
-    public byte[] getBytes() { return raw; }
+    // stops what we parse into memory at MAX_SIZE bytes
+    private static class LimitedInputStream extends FilterInputStream {
+        private long total = 0;
+
+        LimitedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!hasRoom(1))
+                return -1;
+            int c = super.read();
+            if (c != -1)
+                total++;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!hasRoom(len))
+                return -1;
+            int s = super.read(b, off, (int) Math.min(len, MAX_SIZE - total));
+            if (s > 0)
+                total += s;
+            return s;
+        }
+
+        private boolean hasRoom(int len) {
+            if (total < MAX_SIZE || len == 0)
+                return true;
+            log.fatal("Input stream exceeded max size [" + MAX_SIZE + "]bytes.  Terminating...");
+            return false;
+        }
+    }
+
+    /**
+     * Returns the raw bytes of a multipart body if needed for evaluation or to save a image etc.  Other bodies are parsed
+     * as they stream in and are not held so this returns an empty array for them; read them from getInputStream() instead
+     * (before asking for any parameters for url encoded and json object bodies).
+     */
+    public byte[] getBytes() {
+        getParameters();
+        return raw == null ? new byte[0] : raw;
+    }
 
     @Override
     public String toString() {
         if (raw == null || raw.length == 0)
             return "";
-        String enc = getCharacterEncoding();
-        if(enc == null) enc = "UTF-8";
-        try {return new String(raw, enc);}
+        try {return new String(raw, getEncoding());}
         catch (UnsupportedEncodingException uex) {log.fatal("Exception attempting to convert byte array to string: " + uex);}
         return "";
     }
@@ -133,7 +236,7 @@ public class OrderedParameterRequestWrapper extends HttpServletRequestWrapper {
         if (name == null || name.length() == 0)
             return null;
         // return the first parameter we find
-        String[] values = parameterMap.get(name);
+        String[] values = getParameters().get(name);
         if (values == null || values.length == 0)
             return null;
         return values[0];
@@ -141,16 +244,16 @@ public class OrderedParameterRequestWrapper extends HttpServletRequestWrapper {
 
     @Override
     public Map getParameterMap() {
-        return parameterMap;
+        return getParameters();
     }
 
     @Override
     public Enumeration getParameterNames() {
-        return Collections.enumeration(parameterMap.keySet());
+        return Collections.enumeration(getParameters().keySet());
     }
 
     @Override
     public String[] getParameterValues(String name) {
-        return parameterMap.get(name);
+        return getParameters().get(name);
     }
 }
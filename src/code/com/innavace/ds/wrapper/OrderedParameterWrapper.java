@@ -22,6 +22,10 @@ import org.apache.log4j.Logger;
 
 import java.net.URLDecoder;
 import java.util.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -342,6 +346,87 @@ public class OrderedParameterWrapper {
         }
     }
 
+    // parses a url encoded body straight from the stream into the map (same rules as the string version above) so the
+    //  body is never held as a whole; only the key / value being decoded is buffered
+    public void parseUrlEncodedParameters(InputStream in) throws IOException {
+        ByteArrayOutputStream key = new ByteArrayOutputStream(32);
+        ByteArrayOutputStream value = new ByteArrayOutputStream(64);
+        ByteArrayOutputStream current = key;
+        boolean hasEquals = false;
+        // a character read past a bad % escape; it goes back through the loop so a delimiter still splits
+        int pushedBack = -2;
+        int c;
+        do {
+            if (pushedBack != -2) {
+                c = pushedBack;
+                pushedBack = -2;
+            }
+            else
+                c = in.read();
+            if (c == -1 || c == '&') {
+                if (!hasEquals) {
+                    if (key.size() > 0)
+                        log.error("Found a parameter without an equals sign.  This shouldn't happen; skipping...");
+                }
+                else if (key.size() == 0)
+                    log.error("Found a parameter without a key value.  This shouldn't happen; skipping...");
+                else {
+                    String decodedKey = key.toString("UTF-8");
+                    String decodedValue = value.size() == 0 ? null : value.toString("UTF-8");
+                    log.debug("found value [" + showNulls(decodedValue) + "] for key [" + decodedKey + "]");
+                    addParameter(decodedKey, decodedValue);
+                }
+                key.reset();
+                value.reset();
+                current = key;
+                hasEquals = false;
+            }
+            else if (c == '=' && !hasEquals) {
+                hasEquals = true;
+                current = value;
+            }
+            else if (c == '+')
+                current.write(' ');
+            else if (c == '%') {
+                int first = in.read();
+                int high = Character.digit(first, 16);
+                if (high == -1) {
+                    log.error("Found an invalid % escape in a url encoded body.  Skipping...");
+                    pushedBack = first;
+                    continue;
+                }
+                int second = in.read();
+                int low = Character.digit(second, 16);
+                if (low == -1) {
+                    log.error("Found an invalid % escape in a url encoded body.  Skipping...");
+                    pushedBack = second;
+                    continue;
+                }
+                current.write((high << 4) | low);
+            }
+            else
+                current.write(c);
+        } while (c != -1);
+    }
+
+    // parses a json object body straight from the reader into the map; values that are objects or arrays are skipped
+    public void parseJSONEncodedParameters(Reader in) throws IOException {
+        JSONReader reader = new JSONReader(in);
+        if (reader.peek() == -1) {
+            log.debug("no body parameter string found.");
+            return;
+        }
+        for (Map.Entry<String, Object> entry : reader.readObject().entrySet()) {
+            Object value = entry.getValue();
+            if (value == null || value instanceof String) {
+                log.debug("found value [" + showNulls((String) value) + "] for key [" + entry.getKey() + "]");
+                addParameter(entry.getKey(), (String) value);
+            }
+            else
+                log.error("Parameter [" + entry.getKey() + "] is an object or array; only simple values are supported.  Skipping...");
+        }
+    }
+
     // convert nulls to a printable value
     private String showNulls(String value) {
         if (value == null)
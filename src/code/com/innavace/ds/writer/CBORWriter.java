@@ -0,0 +1,296 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Writes rows as CBOR (RFC 7049) for service to service callers: an indefinite length array of maps keyed by the
+ * lower case column label.  Values use the native type of the column instead of strings: integers, doubles,
+ * booleans, byte strings, decimals as tag 4 [exponent, mantissa] and dates / timestamps as tag 1 epoch seconds.
+ * Paged results are a map of rows, next and total like the json envelope.  Column keys are encoded once per result.
+ */
+public class CBORWriter implements ResultWriter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+    private static final int FALSE = 0xF4;
+    private static final int TRUE = 0xF5;
+    private static final int NULL = 0xF6;
+    private static final int DOUBLE = 0xFB;
+    private static final int INDEFINITE_ARRAY = 0x9F;
+    private static final int INDEFINITE_MAP = 0xBF;
+    private static final int BREAK = 0xFF;
+
+    // how we read and encode each column
+    private static final int TYPE_LONG = 0;
+    private static final int TYPE_DOUBLE = 1;
+    private static final int TYPE_DECIMAL = 2;
+    private static final int TYPE_BOOLEAN = 3;
+    private static final int TYPE_TIMESTAMP = 4;
+    private static final int TYPE_BYTES = 5;
+    private static final int TYPE_STRING = 6;
+
+    private final ResponseBuffer buffer;
+    private final byte[] head = new byte[9];
+    private byte[][] keys;
+    private int[] types;
+    private boolean paged;
+
+    public CBORWriter(ResponseBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public String getContentType() {
+        return ResultWriters.CBOR;
+    }
+
+    public void start(ResultSetMetaData metaData, boolean paged) throws SQLException, IOException {
+        this.paged = paged;
+        int count = metaData == null ? 0 : metaData.getColumnCount();
+        keys = new byte[count][];
+        types = new int[count];
+        for (int i=0; i<count; i++) {
+            keys[i] = encodeText(metaData.getColumnLabel(i + 1).toLowerCase());
+            types[i] = toType(metaData, i + 1);
+        }
+        if (paged) {
+            writeRaw(INDEFINITE_MAP);
+            writeText("rows");
+        }
+        writeRaw(INDEFINITE_ARRAY);
+    }
+
+    private static int toType(ResultSetMetaData metaData, int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return TYPE_LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return TYPE_DOUBLE;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return TYPE_DECIMAL;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return TYPE_BOOLEAN;
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                return TYPE_TIMESTAMP;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return TYPE_BYTES;
+            default:
+                return TYPE_STRING;
+        }
+    }
+
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        writeHead(MAJOR_MAP, keys.length);
+        for (int i=0; i<keys.length; i++) {
+            buffer.write(keys[i], 0, keys[i].length);
+            writeValue(rs, i + 1, types[i]);
+        }
+    }
+
+    private void writeValue(ResultSet rs, int column, int type) throws SQLException, IOException {
+        switch (type) {
+            case TYPE_LONG:
+                long longValue = rs.getLong(column);
+                if (rs.wasNull())
+                    writeRaw(NULL);
+                else
+                    writeLong(longValue);
+                return;
+            case TYPE_DOUBLE:
+                double doubleValue = rs.getDouble(column);
+                if (rs.wasNull())
+                    writeRaw(NULL);
+                else
+                    writeDouble(doubleValue);
+                return;
+            case TYPE_DECIMAL:
+                writeDecimal(rs.getBigDecimal(column));
+                return;
+            case TYPE_BOOLEAN:
+                boolean booleanValue = rs.getBoolean(column);
+                writeRaw(rs.wasNull() ? NULL : (booleanValue ? TRUE : FALSE));
+                return;
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = rs.getTimestamp(column);
+                if (timestamp == null)
+                    writeRaw(NULL);
+                else {
+                    // tag 1: seconds since the epoch; a double only if we have fractional seconds
+                    writeHead(MAJOR_TAG, 1);
+                    long millis = timestamp.getTime();
+                    if (millis % 1000 == 0)
+                        writeLong(millis / 1000);
+                    else
+                        writeDouble(millis / 1000.0);
+                }
+                return;
+            case TYPE_BYTES:
+                byte[] bytes = rs.getBytes(column);
+                if (bytes == null)
+                    writeRaw(NULL);
+                else {
+                    writeHead(MAJOR_BYTES, bytes.length);
+                    buffer.write(bytes, 0, bytes.length);
+                }
+                return;
+            default:
+                String value = rs.getString(column);
+                if (value == null)
+                    writeRaw(NULL);
+                else
+                    writeText(value);
+        }
+    }
+
+    public void end(String next, long total) throws IOException {
+        writeRaw(BREAK);
+        if (!paged)
+            return;
+        writeText("next");
+        if (next == null)
+            writeRaw(NULL);
+        else
+            writeText(next);
+        if (total >= 0) {
+            writeText("total");
+            writeLong(total);
+        }
+        writeRaw(BREAK);
+    }
+
+    public void writeUpdateCount(int updateCount) throws IOException {
+        writeHead(MAJOR_MAP, 1);
+        writeText("update_count");
+        writeLong(updateCount);
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value >= 0)
+            writeHead(MAJOR_UNSIGNED, value);
+        else
+            writeHead(MAJOR_NEGATIVE, -1 - value);
+    }
+
+    private void writeDouble(double value) throws IOException {
+        long bits = Double.doubleToLongBits(value);
+        head[0] = (byte) DOUBLE;
+        for (int i=1; i<=8; i++)
+            head[i] = (byte) (bits >>> (8 * (8 - i)));
+        buffer.write(head, 0, 9);
+    }
+
+    // tag 4 decimal fraction [exponent, mantissa]; mantissas too big for a long are written as text
+    private void writeDecimal(BigDecimal value) throws IOException {
+        if (value == null) {
+            writeRaw(NULL);
+            return;
+        }
+        BigInteger mantissa = value.unscaledValue();
+        if (mantissa.bitLength() > 63) {
+            writeText(value.toPlainString());
+            return;
+        }
+        if (value.scale() == 0) {
+            writeLong(mantissa.longValue());
+            return;
+        }
+        writeHead(MAJOR_TAG, 4);
+        writeHead(MAJOR_ARRAY, 2);
+        writeLong(-value.scale());
+        writeLong(mantissa.longValue());
+    }
+
+    private void writeText(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF8);
+        writeHead(MAJOR_TEXT, bytes.length);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] encodeText(String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        byte[] head = new byte[9];
+        int length = encodeHead(head, MAJOR_TEXT, bytes.length);
+        byte[] encoded = new byte[length + bytes.length];
+        System.arraycopy(head, 0, encoded, 0, length);
+        System.arraycopy(bytes, 0, encoded, length, bytes.length);
+        return encoded;
+    }
+
+    private void writeRaw(int b) throws IOException {
+        head[0] = (byte) b;
+        buffer.write(head, 0, 1);
+    }
+
+    private void writeHead(int major, long value) throws IOException {
+        buffer.write(head, 0, encodeHead(head, major, value));
+    }
+
+    // encodes the major type and argument into head; returns the number of bytes used
+    private static int encodeHead(byte[] head, int major, long value) {
+        int type = major << 5;
+        if (value < 24) {
+            head[0] = (byte) (type | value);
+            return 1;
+        }
+        int size;
+        if (value < 0x100L) {
+            head[0] = (byte) (type | 24);
+            size = 1;
+        }
+        else if (value < 0x10000L) {
+            head[0] = (byte) (type | 25);
+            size = 2;
+        }
+        else if (value < 0x100000000L) {
+            head[0] = (byte) (type | 26);
+            size = 4;
+        }
+        else {
+            head[0] = (byte) (type | 27);
+            size = 8;
+        }
+        for (int i=1; i<=size; i++)
+            head[i] = (byte) (value >>> (8 * (size - i)));
+        return size + 1;
+    }
+}
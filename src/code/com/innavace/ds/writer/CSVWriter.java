@@ -0,0 +1,92 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Writes rows as RFC 4180 csv: a header line of column labels then one line per row, CRLF line endings, and fields
+ * quoted only when they contain a comma, quote or line break (quotes are doubled).  Nulls are empty fields.  CSV has
+ * nowhere to put paging info so configurations refuse to page csv results; end is never given a next or total.
+ */
+public class CSVWriter implements ResultWriter {
+    private final ResponseBuffer buffer;
+    private int columnCount;
+
+    public CSVWriter(ResponseBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public String getContentType() {
+        return ResultWriters.CSV;
+    }
+
+    public void start(ResultSetMetaData metaData, boolean paged) throws SQLException, IOException {
+        columnCount = metaData == null ? 0 : metaData.getColumnCount();
+        if (columnCount == 0)
+            return;
+        for (int i=1; i<=columnCount; i++) {
+            if (i > 1)
+                buffer.append(',');
+            writeField(metaData.getColumnLabel(i).toLowerCase());
+        }
+        buffer.append("\r\n");
+    }
+
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        String value;
+        for (int i=1; i<=columnCount; i++) {
+            if (i > 1)
+                buffer.append(',');
+            value = rs.getString(i);
+            if (value != null)
+                writeField(value);
+        }
+        buffer.append("\r\n");
+    }
+
+    public void end(String next, long total) throws IOException {
+    }
+
+    public void writeUpdateCount(int updateCount) throws IOException {
+        buffer.append("update_count\r\n").append(updateCount).append("\r\n");
+    }
+
+    private void writeField(String value) throws IOException {
+        boolean quote = false;
+        for (int i=0; i<value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            buffer.append(value);
+            return;
+        }
+        buffer.append('"');
+        int start = 0;
+        int pos;
+        while ((pos = value.indexOf('"', start)) != -1) {
+            buffer.append(value.substring(start, pos + 1)).append('"');
+            start = pos + 1;
+        }
+        buffer.append(value.substring(start)).append('"');
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Passes everything through to the wrapped stream and keeps a copy of the bytes up to a limit.  If the limit is
+ * exceeded the copy is dropped and we simply pass through from then on.
+ */
+public class CaptureOutputStream extends OutputStream {
+    private OutputStream out;
+    private ByteArrayOutputStream copy;
+    private long limit;
+
+    public CaptureOutputStream(OutputStream out, long limit) {
+        this.out = out;
+        this.limit = limit;
+        this.copy = new ByteArrayOutputStream(1024);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (copy != null && copy.size() + 1 <= limit)
+            copy.write(b);
+        else
+            copy = null;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (copy != null && copy.size() + len <= limit)
+            copy.write(b, off, len);
+        else
+            copy = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    // returns the captured bytes or null if we went over the limit
+    public byte[] toByteArray() {
+        return copy == null ? null : copy.toByteArray();
+    }
+}
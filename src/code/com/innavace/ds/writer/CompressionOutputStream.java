@@ -0,0 +1,134 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Compresses to gzip (RFC 1952) or deflate (zlib, RFC 1950) at a given level and, unlike the jdk streams, really
+ * flushes what it has compressed so far when flush is called so streamed rows still reach the client as they are
+ * written.  Java 6 has no SYNC_FLUSH so we force the deflater to emit its pending block by changing its level (the
+ * deflater won't do anything without input, so we always hold back the last byte written to give it some) and then
+ * change it straight back.
+ */
+public class CompressionOutputStream extends DeflaterOutputStream {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final boolean gzip;
+    private final int level;
+    private final CRC32 crc = new CRC32();
+    private final byte[] lastByte = new byte[1];
+    private boolean hasLastByte = false;
+    private boolean finished = false;
+
+    // gzip or deflate; level is 0-9 or Deflater.DEFAULT_COMPRESSION
+    public CompressionOutputStream(OutputStream out, boolean gzip, int level) throws IOException {
+        // gzip has its own header and trailer around the raw deflate data
+        super(out, new Deflater(level, gzip), 8192);
+        this.gzip = gzip;
+        this.level = level;
+        if (gzip)
+            out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushLastByte();
+        lastByte[0] = (byte) b;
+        hasLastByte = true;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= 0)
+            return;
+        flushLastByte();
+        if (len > 1)
+            writeInternal(b, off, len - 1);
+        lastByte[0] = b[off + len - 1];
+        hasLastByte = true;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (hasLastByte && !def.finished()) {
+            // changing the level makes the deflater finish the block with what it has (the held back byte is the
+            //  input it needs to do it); changing it back with no input just switches the level for the next write
+            def.setLevel(Deflater.NO_COMPRESSION);
+            flushLastByte();
+            def.setLevel(level);
+            deflate();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (finished)
+            return;
+        flushLastByte();
+        super.finish();
+        if (gzip) {
+            writeInt((int) crc.getValue());
+            writeInt(def.getTotalIn());
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {finish();}
+        finally {
+            def.end();
+            out.close();
+        }
+    }
+
+    // the jdk only deflates until the deflater asks for input; we keep going so a level switch pushes out the block
+    @Override
+    protected void deflate() throws IOException {
+        int length;
+        while ((length = def.deflate(buf, 0, buf.length)) > 0)
+            out.write(buf, 0, length);
+    }
+
+    private void flushLastByte() throws IOException {
+        if (hasLastByte) {
+            hasLastByte = false;
+            writeInternal(lastByte, 0, 1);
+        }
+    }
+
+    private void writeInternal(byte[] b, int off, int len) throws IOException {
+        if (gzip)
+            crc.update(b, off, len);
+        super.write(b, off, len);
+    }
+
+    // little endian
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+}
@@ -0,0 +1,94 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Holds a response body (up to a limit) so we can compute a strong etag from the bytes before anything is sent.  If
+ * the body goes over the limit we give up on the etag, write what we held and pass everything else straight through.
+ * Nothing is sent until writeBody is called so a matching If-None-Match can be answered with a 304 instead.
+ */
+public class EntityTagOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final long limit;
+    private ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+    public EntityTagOutputStream(OutputStream out, long limit) {
+        this.out = out;
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (body != null && body.size() + len > limit) {
+            passingThrough();
+            body.writeTo(out);
+            body = null;
+        }
+        if (body != null)
+            body.write(b, off, len);
+        else
+            out.write(b, off, len);
+    }
+
+    // holding the body is the point; only flush once we are passing through
+    @Override
+    public void flush() throws IOException {
+        if (body == null)
+            out.flush();
+    }
+
+    // called once, just before the first byte goes out because the body went over the limit
+    protected void passingThrough() {
+    }
+
+    // returns a quoted md5 of the body or null if it went over the limit
+    public String getEntityTag() {
+        if (body == null)
+            return null;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(body.toByteArray());
+            StringBuilder tag = new StringBuilder(34).append('"');
+            for (byte b : digest)
+                tag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return tag.append('"').toString();
+        }
+        catch (NoSuchAlgorithmException nsaex) {
+            // every jre has md5; without it we just don't tag
+            return null;
+        }
+    }
+
+    // sends the held body; does nothing if we already passed it through
+    public void writeBody() throws IOException {
+        if (body != null) {
+            body.writeTo(out);
+            body = null;
+        }
+    }
+}
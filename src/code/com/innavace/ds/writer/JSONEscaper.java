@@ -0,0 +1,111 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Escapes strings for json (RFC 8259) in a single pass: quote, backslash and every control character are escaped
+ * (\b \f \n \r \t or \\u00XX), U+2028 / U+2029 are escaped so the output is also safe inside javascript, byte order
+ * marks are dropped and unpaired surrogates become \\uFFFD.  write() escapes straight into a response buffer without
+ * building any intermediate strings; runs of characters that don't need escaping are encoded as they are.
+ */
+public class JSONEscaper {
+    // the escape for each ascii character or null if it is written as is
+    private static final String[] ESCAPES = new String[128];
+    static {
+        for (int c=0; c<0x20; c++)
+            ESCAPES[c] = String.format("\\u%04x", c);
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    // returns the escape for the character at index (a surrogate pair is left alone) or null if it needs none
+    private static String escapeAt(String value, int index) {
+        char c = value.charAt(index);
+        if (c < 0x80)
+            return ESCAPES[c];
+        if (c < 0x2028)
+            return null;
+        if (c == '\u2028')
+            return "\\u2028";
+        if (c == '\u2029')
+            return "\\u2029";
+        if (c == '\uFEFF')
+            return "";
+        if (Character.isHighSurrogate(c))
+            return index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1)) ? null : "\\ufffd";
+        if (Character.isLowSurrogate(c))
+            return index > 0 && Character.isHighSurrogate(value.charAt(index - 1)) ? null : "\\ufffd";
+        return null;
+    }
+
+    // writes the value as a quoted json string or null
+    public static void write(String value, ResponseBuffer buffer) throws IOException {
+        if (value == null) {
+            buffer.append("null");
+            return;
+        }
+        buffer.append('"');
+        int length = value.length();
+        int start = 0;
+        String escape;
+        char c;
+        for (int i=0; i<length; i++) {
+            // most characters are plain ascii; skip the table for them
+            c = value.charAt(i);
+            if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\')
+                continue;
+            if ((escape = escapeAt(value, i)) == null)
+                continue;
+            if (i > start)
+                buffer.append(value, start, i);
+            buffer.append(escape);
+            start = i + 1;
+        }
+        if (length > start)
+            buffer.append(value, start, length);
+        buffer.append('"');
+    }
+
+    // returns the value as a quoted json string or null; for the odd value that isn't written to a response buffer
+    public static String quote(String value) {
+        if (value == null)
+            return "null";
+        int length = value.length();
+        StringBuilder buffer = null;
+        int start = 0;
+        String escape;
+        for (int i=0; i<length; i++) {
+            if ((escape = escapeAt(value, i)) == null)
+                continue;
+            if (buffer == null)
+                buffer = new StringBuilder(length + 16).append('"');
+            buffer.append(value, start, i).append(escape);
+            start = i + 1;
+        }
+        if (buffer == null)
+            return '"' + value + '"';
+        return buffer.append(value, start, length).append('"').toString();
+    }
+}
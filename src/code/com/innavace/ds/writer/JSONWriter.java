@@ -0,0 +1,185 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Writes rows as json in one of three layouts ($layout):
+ *  objects (default) - [{"col":val,...},...] keyed by the lower case column label
+ *  rows              - {"columns":["col",...], "rows":[["val",...],...]} so column names are only sent once
+ *  columnar          - {"columns":["col",...], "values":[["val",...],...]} one array per column (column major)
+ * Paged results add "next" and "total" to the object ({"rows":[...], ...} for the objects layout).  Columnar values
+ * have to be held until the last row is read so use it with a $limit; the other layouts stream.  Values are typed
+ * from the column metadata by a RowEncoder (numbers and booleans are not quoted, timestamps are ISO-8601).
+ * As ndjson we write one row per line instead of an array (the rows / columnar layouts start with a {"columns":[...]}
+ * line and write arrays; paging info is a last {"next":..., "total":...} line) and flush every so often so the client
+ * can start on the rows while we are still fetching.
+ */
+public class JSONWriter implements ResultWriter {
+    public static final String LAYOUT_OBJECTS = "objects";
+    public static final String LAYOUT_ROWS = "rows";
+    public static final String LAYOUT_COLUMNAR = "columnar";
+    // how often we push rows to the client while streaming ndjson
+    private static final long FLUSH_NANOS = 250L * 1000 * 1000;
+
+    private final ResponseBuffer buffer;
+    private final boolean lines;
+    private final String layout;
+    private RowEncoder encoder;
+    // column major values while we are writing the columnar layout
+    private ByteArrayOutputStream[] values;
+    private ResponseBuffer[] valueBuffers;
+    private boolean paged;
+    private int rows = 0;
+    private long flushed;
+
+    public JSONWriter(ResponseBuffer buffer, boolean lines) {
+        this(buffer, lines, null);
+    }
+
+    // layout is one of the LAYOUT_ names (case insensitive); anything else is the objects layout
+    public JSONWriter(ResponseBuffer buffer, boolean lines, String layout) {
+        this.buffer = buffer;
+        this.lines = lines;
+        if (LAYOUT_ROWS.equalsIgnoreCase(layout))
+            this.layout = LAYOUT_ROWS;
+        // ndjson is one row per line so column major doesn't apply; write it as rows
+        else if (LAYOUT_COLUMNAR.equalsIgnoreCase(layout))
+            this.layout = lines ? LAYOUT_ROWS : LAYOUT_COLUMNAR;
+        else
+            this.layout = LAYOUT_OBJECTS;
+    }
+
+    public String getContentType() {
+        return lines ? ResultWriters.NDJSON : ResultWriters.JSON;
+    }
+
+    public void start(ResultSetMetaData metaData, boolean paged) throws SQLException, IOException {
+        this.paged = paged;
+        encoder = new RowEncoder(metaData);
+        int count = encoder.getColumnCount();
+        if (layout == LAYOUT_OBJECTS) {
+            if (!lines) {
+                if (paged)
+                    buffer.append("{\"rows\":");
+                buffer.append('[');
+            }
+        }
+        else {
+            buffer.append("{\"columns\":[");
+            for (int i=0; i<count; i++) {
+                if (i > 0)
+                    buffer.append(',');
+                buffer.append(encoder.getLabel(i));
+            }
+            buffer.append(']');
+            if (lines)
+                buffer.append("}\n");
+            else if (layout == LAYOUT_ROWS)
+                buffer.append(", \"rows\":[");
+            else {
+                values = new ByteArrayOutputStream[count];
+                valueBuffers = new ResponseBuffer[count];
+                for (int i=0; i<count; i++) {
+                    values[i] = new ByteArrayOutputStream(256);
+                    valueBuffers[i] = new ResponseBuffer(values[i]);
+                }
+            }
+        }
+        flushed = System.nanoTime();
+    }
+
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        if (layout == LAYOUT_COLUMNAR) {
+            addValues(rs);
+            return;
+        }
+        if (rows++ > 0 && !lines)
+            buffer.append(", ");
+        boolean objects = layout == LAYOUT_OBJECTS;
+        buffer.append(objects ? '{' : '[');
+        int count = encoder.getColumnCount();
+        for (int i=0; i<count; i++) {
+            if (i > 0)
+                buffer.append(',');
+            if (objects)
+                encoder.writeName(i, buffer);
+            encoder.writeValue(rs, i, buffer);
+        }
+        buffer.append(objects ? '}' : ']');
+        if (lines) {
+            buffer.append('\n');
+            // the first row goes out right away then at most every so often
+            if (rows == 1 || System.nanoTime() - flushed > FLUSH_NANOS) {
+                buffer.flush();
+                flushed = System.nanoTime();
+            }
+        }
+    }
+
+    private void addValues(ResultSet rs) throws SQLException, IOException {
+        for (int i=0; i<valueBuffers.length; i++) {
+            if (rows > 0)
+                valueBuffers[i].append(',');
+            encoder.writeValue(rs, i, valueBuffers[i]);
+        }
+        rows++;
+    }
+
+    public void end(String next, long total) throws IOException {
+        if (!lines) {
+            if (layout == LAYOUT_COLUMNAR) {
+                buffer.append(", \"values\":[");
+                for (int i=0; i<values.length; i++) {
+                    if (i > 0)
+                        buffer.append(", ");
+                    valueBuffers[i].close();
+                    byte[] bytes = values[i].toByteArray();
+                    values[i] = null;
+                    buffer.append('[').write(bytes, 0, bytes.length).append(']');
+                }
+                buffer.append(']');
+            }
+            else
+                buffer.append(']');
+        }
+        // everything but the plain objects array is an object we still need to close
+        boolean open = !lines && (paged || layout != LAYOUT_OBJECTS);
+        if (paged) {
+            buffer.append(lines ? "{\"next\":" : ", \"next\":");
+            JSONEscaper.write(next, buffer);
+            if (total >= 0)
+                buffer.append(", \"total\":").append(total);
+            if (lines)
+                buffer.append("}\n");
+        }
+        if (open)
+            buffer.append('}');
+    }
+
+    public void writeUpdateCount(int updateCount) throws IOException {
+        buffer.append("{\"update_count\":\"").append(updateCount).append("\"}");
+        if (lines)
+            buffer.append('\n');
+    }
+}
@@ -0,0 +1,170 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Encodes characters as UTF-8 straight into a pooled byte buffer and drains it to the output stream whenever it fills
+ * up.  Results are written as they are read instead of being built up as a String and then copied to bytes.
+ * NOTE: a buffer is not thread safe; each request should use its own and close it when done to return the bytes
+ */
+public class ResponseBuffer {
+    public static final int BUFFER_SIZE = 8192;
+    // one spare buffer per thread; request threads are pooled so this gets re-used across requests
+    private static final ThreadLocal<byte[]> pool = new ThreadLocal<byte[]>();
+
+    private OutputStream out;
+    private byte[] buffer;
+    private int position = 0;
+    private long written = 0;
+
+    public ResponseBuffer(OutputStream out) {
+        this.out = out;
+        buffer = pool.get();
+        if (buffer == null)
+            buffer = new byte[BUFFER_SIZE];
+        else
+            pool.set(null);
+    }
+
+    public ResponseBuffer append(String string) throws IOException {
+        if (string == null)
+            return append("null");
+        return append(string, 0, string.length());
+    }
+
+    // encodes the characters from start up to end without making a substring
+    public ResponseBuffer append(String string, int start, int end) throws IOException {
+        int length = end;
+        char c;
+        for (int i=start; i<length; i++) {
+            if (position + 4 > buffer.length)
+                drain();
+            c = string.charAt(i);
+            if (c < 0x80) {
+                // copy a run of ascii as far as the buffer has room without re-checking for each character
+                buffer[position++] = (byte) c;
+                int stop = Math.min(length, i + 1 + buffer.length - position);
+                while (i + 1 < stop && (c = string.charAt(i + 1)) < 0x80) {
+                    buffer[position++] = (byte) c;
+                    i++;
+                }
+            }
+            else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c))
+                // unpaired surrogates can't be encoded; same replacement String.getBytes("UTF-8") uses
+                buffer[position++] = (byte) '?';
+            else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+
+    // only use for single byte characters; json/xml structure characters etc.
+    public ResponseBuffer append(char c) throws IOException {
+        if (c >= 0x80)
+            return append(String.valueOf(c));
+        if (position == buffer.length)
+            drain();
+        buffer[position++] = (byte) c;
+        return this;
+    }
+
+    // writes the digits straight into the buffer instead of going through Long.toString
+    public ResponseBuffer append(long value) throws IOException {
+        if (value == Long.MIN_VALUE)
+            return append("-9223372036854775808");
+        if (position + 20 > buffer.length)
+            drain();
+        if (value < 0) {
+            buffer[position++] = (byte) '-';
+            value = -value;
+        }
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value > 0);
+        // we wrote the digits backwards
+        for (int i=start, j=position - 1; i<j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return this;
+    }
+
+    // writes bytes that are already encoded (cached results etc.)
+    public ResponseBuffer write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.length - position) {
+            drain();
+            if (length > buffer.length) {
+                out.write(bytes, offset, length);
+                written += length;
+                return this;
+            }
+        }
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    // pushes whatever we have buffered to the stream without asking the stream to flush itself
+    public void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            written += position;
+            position = 0;
+        }
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    // drains the remaining bytes and gives our buffer back to the pool; does not close the underlying stream
+    public void close() throws IOException {
+        if (buffer == null)
+            return;
+        try {drain();}
+        finally {
+            pool.set(buffer);
+            buffer = null;
+        }
+    }
+
+    public long getBytesWritten() {
+        return written + position;
+    }
+}
@@ -0,0 +1,44 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Writes query results in one response format straight to a response buffer one row at a time.  A writer is created
+ * per result: start is called once, then writeRow for each row and finally end.  Writers are picked by
+ * ResultWriters from the $format parameter or the accept header.
+ */
+public interface ResultWriter {
+    public String getContentType();
+
+    // metaData is null if the statement did not return a result set; paged is true if end will be passed paging info
+    public void start(ResultSetMetaData metaData, boolean paged) throws SQLException, IOException;
+
+    // writes the row the result set is positioned on
+    public void writeRow(ResultSet rs) throws SQLException, IOException;
+
+    // closes the rows; next is the token for the next page (null on the last page) and total is -1 if not counted
+    public void end(String next, long total) throws IOException;
+
+    // writes the response for an insert, update or delete instead of rows
+    public void writeUpdateCount(int updateCount) throws IOException;
+}
@@ -0,0 +1,124 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.util.Map;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Picks the response format for a request and creates its writer.  A $format parameter (json, ndjson, csv, xml, cbor) wins
+ * over the accept header; otherwise the accept type we can write with the highest q value is used (the first listed on a
+ * tie, never one with q=0) and json is the default.  A $layout parameter (objects, rows, columnar) picks how json rows
+ * are laid out; see JSONWriter.
+ */
+public class ResultWriters {
+    public static final String JSON = "application/json";
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String CSV = "text/csv";
+    public static final String XML = "application/xml";
+    public static final String CBOR = "application/cbor";
+
+    // returns one of our content types for the request
+    public static String getResponseType(String accept, Map<String, String[]> parameterMap) {
+        String[] format = parameterMap.get("$format");
+        if (format != null && format.length > 0 && format[0] != null && format[0].length() > 0)
+            return fromFormat(format[0]);
+        // browsers ask for text/html then application/xml; they have always gotten json so keep giving it to them
+        if (accept != null && !accept.contains("text/html")) {
+            String best = null;
+            double bestQuality = 0;
+            for (String type : accept.split(",")) {
+                String[] parts = type.split(";");
+                String contentType = fromContentType(parts[0].trim());
+                double quality = getQuality(parts);
+                if (contentType != null && quality > bestQuality) {
+                    best = contentType;
+                    bestQuality = quality;
+                }
+            }
+            if (best != null)
+                return best;
+        }
+        return JSON;
+    }
+
+    // the q parameter of one accept entry; 1 if it has none or we can't read it
+    private static double getQuality(String[] parts) {
+        for (int i=1; i<parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {return Math.max(0, Math.min(1, Double.parseDouble(parameter.substring(2).trim())));}
+                catch (NumberFormatException nfex) {return 1;}
+            }
+        }
+        return 1;
+    }
+
+    private static String fromFormat(String format) {
+        if (format.equalsIgnoreCase("ndjson"))
+            return NDJSON;
+        else if (format.equalsIgnoreCase("csv"))
+            return CSV;
+        else if (format.equalsIgnoreCase("xml"))
+            return XML;
+        else if (format.equalsIgnoreCase("cbor"))
+            return CBOR;
+        return JSON;
+    }
+
+    // returns null if we can't write the content type
+    private static String fromContentType(String contentType) {
+        contentType = contentType.toLowerCase();
+        if (contentType.equals(JSON) || contentType.equals("text/json"))
+            return JSON;
+        else if (contentType.equals(NDJSON) || contentType.equals("application/ndjson"))
+            return NDJSON;
+        else if (contentType.equals(CSV))
+            return CSV;
+        else if (contentType.equals(XML) || contentType.equals("text/xml"))
+            return XML;
+        else if (contentType.equals(CBOR))
+            return CBOR;
+        // anything goes; that is our default
+        else if (contentType.equals("*/*") || contentType.equals("application/*"))
+            return JSON;
+        return null;
+    }
+
+    // returns the $layout parameter or null if not passed
+    public static String getLayout(Map<String, String[]> parameterMap) {
+        String[] layout = parameterMap.get("$layout");
+        return layout == null || layout.length == 0 ? null : layout[0];
+    }
+
+    public static ResultWriter create(String responseType, ResponseBuffer buffer) {
+        return create(responseType, null, buffer);
+    }
+
+    // creates a writer for a content type returned by getResponseType; anything else gets json
+    public static ResultWriter create(String responseType, String layout, ResponseBuffer buffer) {
+        if (NDJSON.equals(responseType))
+            return new JSONWriter(buffer, true, layout);
+        else if (CSV.equals(responseType))
+            return new CSVWriter(buffer);
+        else if (XML.equals(responseType))
+            return new XMLWriter(buffer);
+        else if (CBOR.equals(responseType))
+            return new CBORWriter(buffer);
+        return new JSONWriter(buffer, false, layout);
+    }
+}
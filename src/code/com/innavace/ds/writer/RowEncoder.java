@@ -0,0 +1,207 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Encodes the columns of a result set as json values.  It is built once per result from the metadata: column names
+ * are escaped and encoded as "name": bytes up front and each column gets a kind so rows only call the getter for it.
+ * Numbers and booleans are written natively from the primitive getters (getLong / getDouble / getBoolean and
+ * wasNull), timestamps as ISO-8601 with the offset, dates as yyyy-MM-dd and everything else as a json string.
+ * NOTE: not thread safe; one per result
+ */
+public class RowEncoder {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int KIND_STRING = 0;
+    private static final int KIND_LONG = 1;
+    private static final int KIND_DOUBLE = 2;
+    private static final int KIND_FLOAT = 3;
+    private static final int KIND_DECIMAL = 4;
+    private static final int KIND_BOOLEAN = 5;
+    private static final int KIND_TIMESTAMP = 6;
+    private static final int KIND_DATE = 7;
+
+    private final String[] labels;
+    private final byte[][] names;
+    private final int[] kinds;
+    private final Calendar calendar = Calendar.getInstance();
+
+    // metaData may be null for statements that did not return a result set
+    public RowEncoder(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData == null ? 0 : metaData.getColumnCount();
+        labels = new String[count];
+        names = new byte[count][];
+        kinds = new int[count];
+        for (int i=0; i<count; i++) {
+            labels[i] = JSONEscaper.quote(metaData.getColumnLabel(i + 1).toLowerCase());
+            names[i] = (labels[i] + ':').getBytes(UTF8);
+            kinds[i] = toKind(metaData, i + 1);
+        }
+    }
+
+    private static int toKind(ResultSetMetaData metaData, int column) throws SQLException {
+        switch (metaData.getColumnType(column)) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return KIND_LONG;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return KIND_DOUBLE;
+            case Types.REAL:
+                return KIND_FLOAT;
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                // whole numbers that fit in a long don't need a BigDecimal
+                int precision = metaData.getPrecision(column);
+                if (metaData.getScale(column) == 0 && precision > 0 && precision <= 18)
+                    return KIND_LONG;
+                return KIND_DECIMAL;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return KIND_BOOLEAN;
+            case Types.TIMESTAMP:
+                return KIND_TIMESTAMP;
+            case Types.DATE:
+                return KIND_DATE;
+            default:
+                return KIND_STRING;
+        }
+    }
+
+    public int getColumnCount() {
+        return kinds.length;
+    }
+
+    // the quoted lower case label for a column (0 based)
+    public String getLabel(int index) {
+        return labels[index];
+    }
+
+    // writes "label": for a column (0 based)
+    public void writeName(int index, ResponseBuffer buffer) throws IOException {
+        buffer.write(names[index], 0, names[index].length);
+    }
+
+    // writes the value of a column (0 based) of the current row
+    public void writeValue(ResultSet rs, int index, ResponseBuffer buffer) throws SQLException, IOException {
+        int column = index + 1;
+        switch (kinds[index]) {
+            case KIND_LONG:
+                long longValue = rs.getLong(column);
+                if (rs.wasNull())
+                    buffer.append("null");
+                else
+                    buffer.append(longValue);
+                return;
+            case KIND_DOUBLE:
+                double doubleValue = rs.getDouble(column);
+                // json has no NaN or infinity
+                if (rs.wasNull() || Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))
+                    buffer.append("null");
+                else
+                    buffer.append(Double.toString(doubleValue));
+                return;
+            case KIND_FLOAT:
+                float floatValue = rs.getFloat(column);
+                if (rs.wasNull() || Float.isNaN(floatValue) || Float.isInfinite(floatValue))
+                    buffer.append("null");
+                else
+                    buffer.append(Float.toString(floatValue));
+                return;
+            case KIND_DECIMAL:
+                java.math.BigDecimal decimalValue = rs.getBigDecimal(column);
+                buffer.append(decimalValue == null ? "null" : decimalValue.toPlainString());
+                return;
+            case KIND_BOOLEAN:
+                boolean booleanValue = rs.getBoolean(column);
+                buffer.append(rs.wasNull() ? "null" : (booleanValue ? "true" : "false"));
+                return;
+            case KIND_TIMESTAMP:
+                Timestamp timestamp = rs.getTimestamp(column);
+                if (timestamp == null)
+                    buffer.append("null");
+                else
+                    writeTimestamp(timestamp.getTime(), true, buffer);
+                return;
+            case KIND_DATE:
+                java.sql.Date date = rs.getDate(column);
+                if (date == null)
+                    buffer.append("null");
+                else
+                    writeTimestamp(date.getTime(), false, buffer);
+                return;
+            default:
+                JSONEscaper.write(rs.getString(column), buffer);
+        }
+    }
+
+    // yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss[.SSS]+hh:mm in the server time zone
+    private void writeTimestamp(long millis, boolean time, ResponseBuffer buffer) throws IOException {
+        calendar.setTimeInMillis(millis);
+        buffer.append('"');
+        writeDigits(calendar.get(Calendar.YEAR), 4, buffer);
+        buffer.append('-');
+        writeDigits(calendar.get(Calendar.MONTH) + 1, 2, buffer);
+        buffer.append('-');
+        writeDigits(calendar.get(Calendar.DAY_OF_MONTH), 2, buffer);
+        if (time) {
+            buffer.append('T');
+            writeDigits(calendar.get(Calendar.HOUR_OF_DAY), 2, buffer);
+            buffer.append(':');
+            writeDigits(calendar.get(Calendar.MINUTE), 2, buffer);
+            buffer.append(':');
+            writeDigits(calendar.get(Calendar.SECOND), 2, buffer);
+            int fraction = calendar.get(Calendar.MILLISECOND);
+            if (fraction > 0) {
+                buffer.append('.');
+                writeDigits(fraction, 3, buffer);
+            }
+            int offset = (calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET)) / 60000;
+            if (offset == 0)
+                buffer.append('Z');
+            else {
+                buffer.append(offset < 0 ? '-' : '+');
+                offset = Math.abs(offset);
+                writeDigits(offset / 60, 2, buffer);
+                buffer.append(':');
+                writeDigits(offset % 60, 2, buffer);
+            }
+        }
+        buffer.append('"');
+    }
+
+    // zero pads to width
+    private static void writeDigits(int value, int width, ResponseBuffer buffer) throws IOException {
+        int bound = 1;
+        while (--width > 0)
+            bound *= 10;
+        for (; bound > 1 && value < bound; bound /= 10)
+            buffer.append('0');
+        buffer.append(value);
+    }
+}
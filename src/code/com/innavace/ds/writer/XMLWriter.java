@@ -0,0 +1,135 @@
+/* Copyright 2013 Stephen Stacha
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.innavace.ds.writer;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * User: sstacha
+ * Date: Oct 17, 2026
+ * Writes rows as <results><row><column>value</column>...</row>...</results> with an element per lower case column
+ * label (characters that can't be in an element name become _).  Null values are written as <column null="true"/>.
+ * Paged results are wrapped as <page><results>...</results><next>...</next><total>n</total></page>.
+ */
+public class XMLWriter implements ResultWriter {
+    private final ResponseBuffer buffer;
+    private String[] columns;
+    private boolean paged;
+
+    public XMLWriter(ResponseBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    public String getContentType() {
+        return ResultWriters.XML;
+    }
+
+    public void start(ResultSetMetaData metaData, boolean paged) throws SQLException, IOException {
+        this.paged = paged;
+        int count = metaData == null ? 0 : metaData.getColumnCount();
+        columns = new String[count];
+        for (int i=0; i<count; i++)
+            columns[i] = toElementName(metaData.getColumnLabel(i + 1).toLowerCase());
+        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        if (paged)
+            buffer.append("<page>");
+        buffer.append("<results>");
+    }
+
+    public void writeRow(ResultSet rs) throws SQLException, IOException {
+        buffer.append("<row>");
+        String value;
+        for (int i=0; i<columns.length; i++) {
+            value = rs.getString(i + 1);
+            buffer.append('<').append(columns[i]);
+            if (value == null)
+                buffer.append(" null=\"true\"/>");
+            else {
+                buffer.append('>');
+                writeText(value);
+                buffer.append("</").append(columns[i]).append('>');
+            }
+        }
+        buffer.append("</row>");
+    }
+
+    public void end(String next, long total) throws IOException {
+        buffer.append("</results>");
+        if (!paged)
+            return;
+        if (next == null)
+            buffer.append("<next null=\"true\"/>");
+        else {
+            buffer.append("<next>");
+            writeText(next);
+            buffer.append("</next>");
+        }
+        if (total >= 0)
+            buffer.append("<total>").append(total).append("</total>");
+        buffer.append("</page>");
+    }
+
+    public void writeUpdateCount(int updateCount) throws IOException {
+        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        buffer.append("<update_count>").append(updateCount).append("</update_count>");
+    }
+
+    // escapes markup and drops the control characters xml 1.0 doesn't allow
+    private void writeText(String value) throws IOException {
+        int start = 0;
+        char c;
+        for (int i=0; i<value.length(); i++) {
+            c = value.charAt(i);
+            String replacement;
+            if (c == '<')
+                replacement = "&lt;";
+            else if (c == '>')
+                replacement = "&gt;";
+            else if (c == '&')
+                replacement = "&amp;";
+            else if ((c < 0x20 && c != '\t' && c != '\n' && c != '\r') || c == '\uFFFE' || c == '\uFFFF')
+                replacement = "";
+            else
+                continue;
+            if (i > start)
+                buffer.append(value.substring(start, i));
+            buffer.append(replacement);
+            start = i + 1;
+        }
+        if (start == 0)
+            buffer.append(value);
+        else if (start < value.length())
+            buffer.append(value.substring(start));
+    }
+
+    private static String toElementName(String label) {
+        StringBuilder name = new StringBuilder(label.length() + 1);
+        for (int i=0; i<label.length(); i++) {
+            char c = label.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')
+                name.append(c);
+            else
+                name.append('_');
+        }
+        // names can't start with a digit, dash or dot (or be empty)
+        if (name.length() == 0 || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_'))
+            name.insert(0, '_');
+        return name.toString();
+    }
+}